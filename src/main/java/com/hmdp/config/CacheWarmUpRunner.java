@@ -0,0 +1,158 @@
+package com.hmdp.config;
+
+import cn.hutool.core.collection.CollUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.RateLimiter;
+import com.hmdp.utils.ShopAccessLog;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pre-loads the shop types and a hot set of shops into the cache at startup, so a deploy or a Redis flush does not
+ * send the first requests to MySQL. Runners complete before the application is marked ready to accept traffic.
+ * The hot set is the top N shops by sold or score, or the most requested ids of the access log.
+ * The geo sets of the nearby search and the local shop indexes are loaded from all shops.
+ * Shops are loaded in parallel batches through the batch lookup, rate limited in shops per second.
+ * Warm-up is best effort: failures and the timeout are logged and startup goes on.
+ *
+ * @author Ernie Lee
+ */
+@Slf4j
+@Component
+public class CacheWarmUpRunner implements ApplicationRunner {
+
+    @Autowired
+    IShopService shopService;
+
+    @Autowired
+    IShopTypeService shopTypeService;
+
+    @Autowired
+    ShopAccessLog shopAccessLog;
+
+    @Value("${cache.warmup.enabled:true}")
+    boolean enabled;
+
+    // sold, score, access-log
+    @Value("${cache.warmup.shop.source:sold}")
+    String source;
+
+    @Value("${cache.warmup.shop.top.n:1000}")
+    int topN;
+
+    @Value("${cache.warmup.shop.batch.size:100}")
+    int batchSize;
+
+    @Value("${cache.warmup.threads:4}")
+    int threads;
+
+    @Value("${cache.warmup.shop.rate.per.second:2000}")
+    double ratePerSecond;
+
+    @Value("${cache.warmup.shop.index.enabled:true}")
+    boolean indexEnabled;
+
+    @Value("${cache.warmup.timeout.seconds:60}")
+    long timeoutSeconds;
+
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            shopTypeService.queryTypeList();
+        } catch (Exception e) {
+            log.warn("Failed to warm up shop types", e);
+        }
+        if (indexEnabled) {
+            try {
+                shopService.loadShopIndexes();
+            } catch (Exception e) {
+                log.warn("Failed to load shop indexes", e);
+            }
+        }
+        List<Long> ids = selectHotShopIds();
+        int loaded = warmUpShops(ids);
+        log.info("Cache warm-up done, shops: {}/{}, cost: {}ms", loaded, ids.size(), System.currentTimeMillis() - start);
+    }
+
+    List<Long> selectHotShopIds() {
+        if ("access-log".equals(source)) {
+            List<Long> ids = shopAccessLog.topIds(topN);
+            if (!ids.isEmpty()) {
+                return ids;
+            }
+            log.info("Shop access log is empty, warming up the top shops by sold");
+            return selectTopShopIds("sold");
+        }
+        if ("sold".equals(source) || "score".equals(source)) {
+            return selectTopShopIds(source);
+        }
+        throw new IllegalArgumentException("Unknown warm-up source: " + source);
+    }
+
+    private List<Long> selectTopShopIds(String column) {
+        return shopService.query()
+                .select("id")
+                .orderByDesc(column)
+                .last("limit " + topN)
+                .list()
+                .stream()
+                .map(Shop::getId)
+                .collect(Collectors.toList());
+    }
+
+    int warmUpShops(List<Long> ids) throws InterruptedException {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        RateLimiter rateLimiter = new RateLimiter(ratePerSecond);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("cache-warmup-"));
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (List<Long> batch : CollUtil.split(ids, batchSize)) {
+                futures.add(executor.submit(() -> {
+                    rateLimiter.acquire(batch.size());
+                    return shopService.warmUpCache(batch);
+                }));
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+            int loaded = 0;
+            for (Future<Integer> future : futures) {
+                try {
+                    loaded += future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException e) {
+                    log.warn("Failed to warm up a batch of shops", e.getCause());
+                } catch (TimeoutException e) {
+                    log.warn("Cache warm-up timed out after {}s", timeoutSeconds);
+                    break;
+                }
+            }
+            return loaded;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.service.IVoucherService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Cache statistics of this node, and refreshes of caches on every node.
+ *
+ * @author Ernie Lee
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+
+    @Autowired
+    IShopService shopService;
+
+    @Autowired
+    IShopTypeService typeService;
+
+    @Autowired
+    IVoucherService voucherService;
+
+    @GetMapping("/shop")
+    public Result queryShopCacheStats() {
+        return shopService.queryCacheStats();
+    }
+
+    @GetMapping("/shop/hot-keys")
+    public Result queryShopHotKeys() {
+        return shopService.queryHotKeys();
+    }
+
+    @GetMapping("/shop/expiry")
+    public Result queryShopExpiryDistribution() {
+        return shopService.queryExpiryDistribution();
+    }
+
+    @PostMapping("/shop-type/refresh")
+    public Result refreshShopTypes() {
+        return typeService.refreshTypeList();
+    }
+
+    @GetMapping("/voucher")
+    public Result queryVoucherCacheStats() {
+        return voucherService.queryCacheStats();
+    }
+
+    @GetMapping("/voucher/hot-keys")
+    public Result queryVoucherHotKeys() {
+        return voucherService.queryHotKeys();
+    }
+
+    @GetMapping("/voucher/expiry")
+    public Result queryVoucherExpiryDistribution() {
+        return voucherService.queryExpiryDistribution();
+    }
+}
@@ -2,18 +2,16 @@ package com.hmdp.controller;
 
 
 import java.time.Instant;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
-import cn.hutool.core.util.StrUtil;
 import lombok.extern.slf4j.Slf4j;
 
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
 
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -53,6 +51,17 @@ public class ShopController {
         return shopService.query(id);
     }
 
+    /**
+     * 批量查询商铺信息
+     *
+     * @param ids 商铺id列表，以','隔开
+     * @return 存在的商铺，按请求顺序
+     */
+    @GetMapping("/batch")
+    public Result queryShopBatch(@RequestParam("ids") List<Long> ids) {
+        return shopService.queryBatch(ids);
+    }
+
     /**
      * 新增商铺信息
      *
@@ -61,8 +70,7 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        shopService.save(shop);
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -80,37 +88,41 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
-     * @return 商铺列表
+     * @param x 经度，与维度同时传入时按距离由近到远排序
+     * @param y 维度
+     * @param cursor 上一页返回的游标，传入时按游标分页，空字符串表示第一页；按距离排序时不支持
+     * @return 商铺列表，按游标分页时为列表和下一页游标
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        if (cursor != null && (x == null || y == null)) {
+            return shopService.scrollShopByType(typeId, cursor);
+        }
+        return shopService.queryShopByType(typeId, current, x, y);
     }
 
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
      * @param current 页码
-     * @return 商铺列表
+     * @param cursor 上一页返回的游标，传入时按游标分页，空字符串表示第一页
+     * @return 商铺列表，按游标分页时为列表和下一页游标
      */
     @GetMapping("/of/name")
     public Result queryShopByName(
             @RequestParam(value = "name", required = false) String name,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "cursor", required = false) String cursor
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        if (cursor != null) {
+            return shopService.scrollShopByName(name, cursor);
+        }
+        return shopService.queryShopByName(name, current);
     }
 }
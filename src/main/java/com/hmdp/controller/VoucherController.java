@@ -30,7 +30,7 @@ public class VoucherController {
      */
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
-        voucherService.save(voucher);
+        voucherService.addVoucher(voucher);
         return Result.ok(voucher.getId());
     }
 
@@ -45,6 +45,16 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 追加秒杀券库存
+     * @param voucherId 优惠券id
+     * @param stock 追加的库存
+     */
+    @PostMapping("seckill/{id}/stock")
+    public Result addSeckillStock(@PathVariable("id") Long voucherId, @RequestParam("stock") Integer stock) {
+        return voucherService.addSeckillStock(voucherId, stock);
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -3,10 +3,31 @@ package com.hmdp.dto;
 import lombok.Data;
 
 import java.util.List;
+import java.util.function.Function;
 
 @Data
 public class ScrollResult {
     private List<?> list;
     private Long minTime;
     private Integer offset;
+    /**
+     * Cursor of the next page of a keyset paginated list, null after the last page.
+     * */
+    private String cursor;
+
+    /**
+     * @param rows queried with a limit of size + 1, the extra row only tells there is a next page
+     * @param cursorOf cursor of the page ending with the row
+     * */
+    public static <T> ScrollResult of(List<T> rows, int size, Function<T, String> cursorOf) {
+        ScrollResult result = new ScrollResult();
+        if (rows.size() > size) {
+            List<T> page = rows.subList(0, size);
+            result.setList(page);
+            result.setCursor(cursorOf.apply(page.get(size - 1)));
+        } else {
+            result.setList(rows);
+        }
+        return result;
+    }
 }
@@ -0,0 +1,54 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * 商铺变更日志，由拦截器或触发器写入，变更后按顺序刷新缓存
+ * </p>
+ *
+ * @author Ernie Lee
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_shop_change_log")
+public class ShopChangeLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String OP_INSERT = "INSERT";
+    public static final String OP_UPDATE = "UPDATE";
+    public static final String OP_DELETE = "DELETE";
+
+    /**
+     * 主键，即变更顺序
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 商铺id
+     */
+    private Long shopId;
+
+    /**
+     * 操作类型，INSERT、UPDATE或DELETE
+     */
+    private String op;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+
+
+}
@@ -0,0 +1,15 @@
+package com.hmdp.mapper;
+
+import com.hmdp.entity.ShopChangeLog;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ *
+ * @author Ernie Lee
+ */
+public interface ShopChangeLogMapper extends BaseMapper<ShopChangeLog> {
+
+}
@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,11 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    Result queryMyBlog(Long userId, Integer current);
+
+    Result scrollMyBlog(Long userId, String cursor);
+
+    Result queryHotBlog(Integer current);
+
+    Result scrollHotBlog(String cursor);
 }
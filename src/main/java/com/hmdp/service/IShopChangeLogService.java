@@ -0,0 +1,16 @@
+package com.hmdp.service;
+
+import com.hmdp.entity.ShopChangeLog;
+import com.hmdp.utils.ShopChangeLogSource;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+/**
+ * <p>
+ *  服务类
+ * </p>
+ *
+ * @author Ernie Lee
+ */
+public interface IShopChangeLogService extends IService<ShopChangeLog>, ShopChangeLogSource {
+
+}
@@ -5,6 +5,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -17,5 +20,29 @@ public interface IShopService extends IService<Shop> {
 
     Result query(Long id) throws JsonProcessingException;
 
+    Result queryBatch(List<Long> ids);
+
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    Result scrollShopByType(Integer typeId, String cursor);
+
+    Result queryShopByName(String name, Integer current);
+
+    Result scrollShopByName(String name, String cursor);
+
+    long loadShopIndexes();
+
+    int warmUpCache(List<Long> ids);
+
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
+
+    void refreshCache(Collection<Long> ids);
+
+    Result queryCacheStats();
+
+    Result queryHotKeys();
+
+    Result queryExpiryDistribution();
 }
@@ -1,8 +1,12 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
+import com.hmdp.utils.JsonSnapshot;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +17,15 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopTypeService extends IService<ShopType> {
 
+    Result queryTypeList();
+
+    /**
+     * @return the type list serialized as the response of {@link #queryTypeList()}, shared until the version moves
+     * */
+    JsonSnapshot<List<ShopType>> queryTypeListSnapshot();
+
+    /**
+     * Reloads the type list from the database on every node, after the table changed.
+     * */
+    Result refreshTypeList();
 }
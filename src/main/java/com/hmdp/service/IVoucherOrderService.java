@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -19,4 +21,14 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result createVoucherOrder(Long userId, Long voucherId);
 
     Result createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * Creates the orders together, one at a time unless the implementation batches them.
+     * */
+    default Result createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            createVoucherOrder(voucherOrder);
+        }
+        return Result.ok(voucherOrders.size());
+    }
 }
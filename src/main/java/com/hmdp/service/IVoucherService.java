@@ -16,5 +16,15 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
+    void addVoucher(Voucher voucher);
+
     void addSeckillVoucher(Voucher voucher);
+
+    Result addSeckillStock(Long voucherId, Integer stock);
+
+    Result queryCacheStats();
+
+    Result queryHotKeys();
+
+    Result queryExpiryDistribution();
 }
@@ -1,11 +1,26 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
 import com.hmdp.entity.Blog;
+import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.ScrollCursor;
+import com.hmdp.utils.SystemConstants;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +32,92 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    @Autowired
+    IUserService userService;
+
+    @Override
+    public Result queryMyBlog(Long userId, Integer current) {
+        // no COUNT, the total is not returned
+        Page<Blog> page = query()
+                .eq("user_id", userId)
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+        return Result.ok(page.getRecords());
+    }
+
+    /**
+     * Newest first, the cursor is the id of the last blog.
+     * */
+    @Override
+    public Result scrollMyBlog(Long userId, String cursor) {
+        long[] after;
+        try {
+            after = ScrollCursor.parse(cursor, 1);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("Invalid cursor");
+        }
+        List<Blog> blogs = query()
+                .eq("user_id", userId)
+                .lt(after != null, "id", after == null ? null : after[0])
+                .orderByDesc("id")
+                .last("limit " + (SystemConstants.MAX_PAGE_SIZE + 1))
+                .list();
+        return Result.ok(ScrollResult.of(blogs, SystemConstants.MAX_PAGE_SIZE, blog -> ScrollCursor.of(blog.getId())));
+    }
+
+    @Override
+    public Result queryHotBlog(Integer current) {
+        Page<Blog> page = query()
+                .orderByDesc("liked")
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+        List<Blog> records = page.getRecords();
+        fillAuthors(records);
+        return Result.ok(records);
+    }
+
+    /**
+     * Most liked first, ties newest first, the cursor is liked_id of the last blog.
+     * */
+    @Override
+    public Result scrollHotBlog(String cursor) {
+        long[] after;
+        try {
+            after = ScrollCursor.parse(cursor, 2);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("Invalid cursor");
+        }
+        List<Blog> blogs = query()
+                .and(after != null, wrapper -> wrapper
+                        .lt("liked", after[0])
+                        .or(tie -> tie.eq("liked", after[0]).lt("id", after[1])))
+                .orderByDesc("liked", "id")
+                .last("limit " + (SystemConstants.MAX_PAGE_SIZE + 1))
+                .list();
+        ScrollResult result = ScrollResult.of(blogs, SystemConstants.MAX_PAGE_SIZE, blog -> ScrollCursor.of(blog.getLiked(), blog.getId()));
+        fillAuthors((List<Blog>) result.getList());
+        return Result.ok(result);
+    }
+
+    /**
+     * Sets the name and the icon of the authors, with one query for the page.
+     * */
+    private void fillAuthors(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        Set<Long> userIds = new LinkedHashSet<>();
+        for (Blog blog : blogs) {
+            userIds.add(blog.getUserId());
+        }
+        Map<Long, User> users = new HashMap<>();
+        for (User user : userService.listByIds(userIds)) {
+            users.put(user.getId(), user);
+        }
+        for (Blog blog : blogs) {
+            User user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
 }
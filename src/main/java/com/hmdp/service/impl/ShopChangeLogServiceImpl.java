@@ -0,0 +1,35 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.ShopChangeLog;
+import com.hmdp.mapper.ShopChangeLogMapper;
+import com.hmdp.service.IShopChangeLogService;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  服务实现类
+ * </p>
+ *
+ * @author Ernie Lee
+ */
+@Service
+public class ShopChangeLogServiceImpl extends ServiceImpl<ShopChangeLogMapper, ShopChangeLog> implements IShopChangeLogService {
+
+    @Override
+    public List<ShopChangeLog> fetchOldest(int limit, long settleMillis) {
+        // compare on the database clock, which also stamps the rows
+        return query()
+                .apply("create_time <= NOW(3) - INTERVAL {0} MICROSECOND", settleMillis * 1000)
+                .orderByAsc("id")
+                .last("limit " + limit)
+                .list();
+    }
+
+    @Override
+    public void remove(List<Long> changeIds) {
+        removeByIds(changeIds);
+    }
+}
@@ -1,35 +1,73 @@
 package com.hmdp.service.impl;
 
-import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.CacheResult;
-import com.hmdp.utils.Lock;
+import com.hmdp.utils.BloomFilter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheClientFactory;
+import com.hmdp.utils.CacheInvalidationBus;
+import com.hmdp.utils.GeoGridIndex;
+import com.hmdp.utils.HotKeyCache;
 import com.hmdp.utils.RedisData;
-import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.ShopAccessLog;
+import com.hmdp.utils.ScrollCursor;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.codec.JsonCacheCodec;
+import com.hmdp.utils.codec.ShopBinaryCodec;
+import com.hmdp.utils.codec.ShopDataBinaryCodec;
+import com.hmdp.utils.codec.VersionedCacheCodec;
 
-import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
 
 import lombok.extern.slf4j.Slf4j;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_PAGE_KEY;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
 
 /**
  * @author Ernie Lee
@@ -38,196 +76,663 @@ import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
+    private static final String SHOP_CACHE_NAME = "shop";
+    private static final String SHOP_TYPE_PAGE_CACHE_NAME = "shop-type-page";
+    private static final String SHOP_ID_FILTER_NAME = "shop-id";
+    private static final String SHOP_INDEX_NAME = "shop-index";
+    private static final String SHOP_INDEX_SEPARATOR = ":";
+    private static final int SHOP_ID_SCAN_BATCH_SIZE = 10000;
+    private static final int MAX_BATCH_SIZE = 100;
+
     @Autowired
     ObjectMapper objectMapper;
 
+    @Autowired
+    CacheClientFactory cacheClientFactory;
+
+    @Autowired
+    ShopAccessLog shopAccessLog;
+
     @Autowired
     StringRedisTemplate redisTemplate;
 
+    @Autowired
+    CacheInvalidationBus cacheInvalidationBus;
+
     @Value("${cache.shop.ttl.seconds:120}")
     int cacheShopTtlSeconds;
 
     @Value("${cache.shop.null.ttl.seconds:30}")
     int cacheShopNullTtlSeconds;
 
+    @Value("${cache.shop.ttl.jitter.ratio:0.1}")
+    double cacheShopTtlJitterRatio;
+
     @Value("${cache.shop.rebuild.strategy:logic-expiration}")
     String cacheShopRebuildStrategy;
 
-    ExecutorService executorService = Executors.newSingleThreadExecutor();
+    @Value("${cache.shop.probabilistic.beta:1.0}")
+    double cacheShopProbabilisticBeta;
 
-    @Override
-    public Result query(Long id) throws JsonProcessingException {
-        Shop shop = null;
-        switch (cacheShopRebuildStrategy) {
-            case "simple":
-                shop = queryWithSimpleRebuildStrategy(id);
-                break;
-            case "mutex":
-                shop = queryWithMutexRebuildStrategy(id);
-                break;
-            case "logic-expiration":
-                shop = queryWithLogicExpirationRebuildStrategy(id);
+    @Value("${cache.shop.codec:json}")
+    String cacheShopCodec;
+
+    @Value("${cache.shop.local.capacity:10000}")
+    int cacheShopLocalCapacity;
+
+    @Value("${cache.shop.local.ttl.seconds:5}")
+    int cacheShopLocalTtlSeconds;
+
+    @Value("${cache.hotkey.sketch.width:4096}")
+    int cacheHotKeySketchWidth;
+
+    @Value("${cache.hotkey.threshold:50}")
+    long cacheHotKeyThreshold;
+
+    @Value("${cache.hotkey.window.millis:1000}")
+    long cacheHotKeyWindowMillis;
+
+    @Value("${cache.hotkey.max.size:100}")
+    int cacheHotKeyMaxSize;
+
+    @Value("${cache.hotkey.local.ttl.millis:1000}")
+    long cacheHotKeyLocalTtlMillis;
+
+    @Value("${cache.shop.bloom.enabled:true}")
+    boolean cacheShopBloomEnabled;
+
+    @Value("${cache.shop.bloom.expected.insertions:1000000}")
+    long cacheShopBloomExpectedInsertions;
+
+    @Value("${cache.shop.bloom.fpp:0.01}")
+    double cacheShopBloomFpp;
+
+    @Value("${shop.geo.radius.meters:5000}")
+    double shopGeoRadiusMeters;
+
+    @Value("${shop.geo.local.enabled:false}")
+    boolean shopGeoLocalEnabled;
+
+    @Value("${shop.geo.local.cell.degrees:0.01}")
+    double shopGeoLocalCellDegrees;
+
+    @Value("${shop.search.index.enabled:true}")
+    boolean shopSearchIndexEnabled;
+
+    @Value("${cache.shop.type.pages:3}")
+    int cacheShopTypePages;
+
+    @Value("${cache.shop.type.page.ttl.seconds:600}")
+    int cacheShopTypePageTtlSeconds;
+
+    CacheClient<Long, Shop> shopCache;
+
+    /**
+     * Ids of the first pages of each type in id order, one more than the pages hold to tell if more follow.
+     * */
+    CacheClient<Long, List<Long>> shopTypePageCache;
+
+    /**
+     * Ids of all shops, null until the first build finishes, then requests are not guarded.
+     * */
+    volatile BloomFilter shopIdFilter;
+    private volatile BloomFilter buildingShopIdFilter;
+    private final LongAdder shopIdFilterRejectedCount = new LongAdder();
+    /**
+     * Ids passed by the filter without a row, its false positives but also shops deleted since the filter was built,
+     * so an upper bound of the false positives only.
+     * */
+    private final LongAdder shopIdFilterPassedMissingCount = new LongAdder();
+
+    /**
+     * Local indexes of all shops, queried instead of Redis GEO and MySQL once the first load finished.
+     * */
+    GeoGridIndex shopGeoIndex;
+    ShopNameIndex shopNameIndex;
+    volatile boolean shopIndexesLoaded;
+
+    /**
+     * Reloads changed shops and applies index entries in order, off the request and the pub/sub listener threads.
+     * */
+    private final ExecutorService shopIndexExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("shop-index-", true));
+
+    @PostConstruct
+    public void init() {
+        boolean writeBinary = "binary".equals(cacheShopCodec);
+        shopCache = cacheClientFactory.<Long, Shop>builder(SHOP_CACHE_NAME, CACHE_SHOP_KEY)
+                .lockKeyPrefix(LOCK_SHOP_KEY)
+                .lockTtlSeconds(LOCK_SHOP_TTL)
+                .strategy(cacheShopRebuildStrategy)
+                .ttlSeconds(cacheShopTtlSeconds)
+                .nullTtlSeconds(cacheShopNullTtlSeconds)
+                .ttlJitterRatio(cacheShopTtlJitterRatio)
+                .probabilisticBeta(cacheShopProbabilisticBeta)
+                .localCache(cacheShopLocalCapacity, cacheShopLocalTtlSeconds)
+                .codec(new VersionedCacheCodec<>(new JsonCacheCodec<>(objectMapper, Shop.class), new ShopBinaryCodec(), writeBinary),
+                        new VersionedCacheCodec<>(new JsonCacheCodec<>(objectMapper, new TypeReference<RedisData<Shop>>() {}), new ShopDataBinaryCodec(), writeBinary))
+                .loader(this::loadShop)
+                .batchLoader(this::loadShops)
+                .keyParser(Long::valueOf)
+                .onNotFound(this::onShopNotFound)
+                .hotKeyCache(new HotKeyCache<>(
+                        cacheHotKeySketchWidth, cacheHotKeyThreshold, cacheHotKeyWindowMillis, cacheHotKeyMaxSize, cacheHotKeyLocalTtlMillis))
+                .build();
+        shopTypePageCache = cacheClientFactory.<Long, List<Long>>builder(SHOP_TYPE_PAGE_CACHE_NAME, CACHE_SHOP_TYPE_PAGE_KEY)
+                .strategy("mutex")
+                .ttlSeconds(cacheShopTypePageTtlSeconds)
+                .ttlJitterRatio(cacheShopTtlJitterRatio)
+                .localCache(cacheShopLocalCapacity, cacheShopLocalTtlSeconds)
+                .codec(new JsonCacheCodec<>(objectMapper, new TypeReference<List<Long>>() {}),
+                        new JsonCacheCodec<>(objectMapper, new TypeReference<RedisData<List<Long>>>() {}))
+                .loader(this::loadShopTypePageIds)
+                .keyParser(Long::valueOf)
+                .build();
+        if (cacheShopBloomEnabled) {
+            // new shops of other nodes and of the change log tailer, until the next rebuild includes them
+            cacheInvalidationBus.subscribe(SHOP_ID_FILTER_NAME, ids -> ids.forEach(id -> addToShopIdFilter(Long.valueOf(id))));
+        }
+        if (shopGeoLocalEnabled) {
+            shopGeoIndex = new GeoGridIndex(shopGeoLocalCellDegrees);
+        }
+        if (shopSearchIndexEnabled) {
+            shopNameIndex = new ShopNameIndex();
+        }
+        if (shopGeoIndex != null || shopNameIndex != null) {
+            // changes of every node and of the change log tailer arrive with the indexed fields
+            cacheInvalidationBus.subscribe(SHOP_INDEX_NAME, entries -> shopIndexExecutor.execute(() -> applyShopIndexEntries(entries)));
+        }
+    }
+
+    /**
+     * Builds the shop id filter at startup and rebuilds it periodically, so deleted ids eventually drop out.
+     * */
+    @Scheduled(fixedDelayString = "${cache.shop.bloom.rebuild.interval.millis:3600000}")
+    public void rebuildShopIdFilter() {
+        if (!cacheShopBloomEnabled) {
+            return;
+        }
+        BloomFilter filter = new BloomFilter(cacheShopBloomExpectedInsertions, cacheShopBloomFpp);
+        buildingShopIdFilter = filter;
+        long count = 0;
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = query()
+                    .select("id")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + SHOP_ID_SCAN_BATCH_SIZE)
+                    .list();
+            for (Shop shop : shops) {
+                filter.put(shop.getId());
+            }
+            count += shops.size();
+            if (shops.size() < SHOP_ID_SCAN_BATCH_SIZE) {
                 break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
         }
+        shopIdFilter = filter;
+        buildingShopIdFilter = null;
+        log.info("Shop id filter is built: shops={}, expectedFpp={}", count, filter.expectedFpp());
+    }
 
-        if (shop == null) {
-            return Result.fail("Shop not found");
+    /**
+     * Loads all shops into the GEO sets, one per type, and into the local indexes, scanning tb_shop in id order.
+     * GEOADD is idempotent, so nodes starting together only repeat the work.
+     * @return number of shops
+     * */
+    @Override
+    public long loadShopIndexes() {
+        long count = 0;
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = query()
+                    .select("id", "type_id", "x", "y", "name", "area")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + SHOP_ID_SCAN_BATCH_SIZE)
+                    .list();
+            addShopGeo(shops);
+            addToShopNameIndex(shops);
+            count += shops.size();
+            if (shops.size() < SHOP_ID_SCAN_BATCH_SIZE) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
         }
-        return Result.ok(shop);
+        shopIndexesLoaded = true;
+        log.info("Shop indexes are loaded: shops={}, localGeo={}, localName={}", count, shopGeoIndex != null, shopNameIndex != null);
+        return count;
     }
 
-    private Shop queryWithSimpleRebuildStrategy(Long id) throws JsonProcessingException {
-        CacheResult<Shop> result = queryFromCache(id);
-        if (result.isHit()) {
-            return result.getData();
+    /**
+     * Reloads the changed shops once on this node after commit and broadcasts their indexed fields,
+     * so the other nodes update their indexes without reading Redis or MySQL.
+     * */
+    private void reindexShops(Collection<Long> ids) {
+        if (shopGeoIndex == null && shopNameIndex == null) {
+            return;
         }
-        return rebuildCache(id);
+        Runnable reload = () -> shopIndexExecutor.execute(() -> {
+            try {
+                publishShopIndexEntries(ids, loadShops(ids));
+            } catch (RuntimeException e) {
+                log.warn("Failed to reindex shops {}", ids, e);
+            }
+        });
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            reload.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                reload.run();
+            }
+        });
     }
 
     /**
-     * Busy waiting for high consistency.
+     * A shop absent from the shops is broadcast as removed.
      * */
-    private Shop queryWithMutexRebuildStrategy(Long id) throws JsonProcessingException {
-        final String lockKey = LOCK_SHOP_KEY + id;
+    private void publishShopIndexEntries(Collection<Long> ids, Map<Long, Shop> shops) {
+        if (shopGeoIndex == null && shopNameIndex == null) {
+            return;
+        }
+        for (Long id : ids) {
+            cacheInvalidationBus.publishEntry(SHOP_INDEX_NAME, id, shopIndexEntry(id, shops.get(id)));
+        }
+    }
 
-        CacheResult<Shop> result = queryFromCache(id);
-        if (result.isHit()) {
-            return result.getData();
+    /**
+     * @return the id alone for a removed shop, else the id, type, coordinates, name and area,
+     * the texts in URL safe Base64 so the entry holds no separator
+     * */
+    static String shopIndexEntry(Long id, Shop shop) {
+        if (shop == null) {
+            return id.toString();
         }
+        return String.join(SHOP_INDEX_SEPARATOR, id.toString(), StrUtil.nullToEmpty(StrUtil.toStringOrNull(shop.getTypeId())),
+                StrUtil.nullToEmpty(StrUtil.toStringOrNull(shop.getX())), StrUtil.nullToEmpty(StrUtil.toStringOrNull(shop.getY())),
+                encodeIndexText(shop.getName()), encodeIndexText(shop.getArea()));
+    }
 
-        Lock lock = new SimpleRedisLock(lockKey, redisTemplate);
-        try {
-            boolean isLocked = lock.tryLock(LOCK_SHOP_TTL);
-            if (!isLocked) {
-                Thread.sleep(30);
-                return queryWithMutexRebuildStrategy(id);
+    void applyShopIndexEntries(List<String> entries) {
+        for (String entry : entries) {
+            String[] fields = entry.split(SHOP_INDEX_SEPARATOR, -1);
+            Long id = Long.valueOf(fields[0]);
+            Shop shop = null;
+            if (fields.length > 1) {
+                shop = new Shop()
+                        .setId(id)
+                        .setTypeId(fields[1].isEmpty() ? null : Long.valueOf(fields[1]))
+                        .setX(fields[2].isEmpty() ? null : Double.valueOf(fields[2]))
+                        .setY(fields[3].isEmpty() ? null : Double.valueOf(fields[3]))
+                        .setName(decodeIndexText(fields[4]))
+                        .setArea(decodeIndexText(fields[5]));
             }
+            if (shopGeoIndex != null) {
+                if (shop == null || shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                    shopGeoIndex.remove(id);
+                } else {
+                    shopGeoIndex.put(id, shop.getTypeId(), shop.getX(), shop.getY());
+                }
+            }
+            if (shopNameIndex != null) {
+                if (shop == null) {
+                    shopNameIndex.remove(id);
+                } else {
+                    shopNameIndex.put(id, shop.getName(), shop.getArea());
+                }
+            }
+        }
+    }
+
+    private static String encodeIndexText(String text) {
+        return text == null ? "" : Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeIndexText(String text) {
+        return text.isEmpty() ? null : new String(Base64.getUrlDecoder().decode(text), StandardCharsets.UTF_8);
+    }
 
-            // double check to prevent race condition
-            result = queryFromCache(id);
-            if (result.isHit()) {
-                return result.getData();
+    private void addToShopNameIndex(Collection<Shop> shops) {
+        ShopNameIndex index = shopNameIndex;
+        if (index == null) {
+            return;
+        }
+        for (Shop shop : shops) {
+            index.put(shop.getId(), shop.getName(), shop.getArea());
+        }
+    }
+
+    private int addShopGeo(Collection<Shop> shops) {
+        Map<Long, Map<String, Point>> locationsByType = new HashMap<>();
+        GeoGridIndex index = shopGeoIndex;
+        int count = 0;
+        for (Shop shop : shops) {
+            if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                continue;
+            }
+            locationsByType.computeIfAbsent(shop.getTypeId(), typeId -> new HashMap<>())
+                    .put(shop.getId().toString(), new Point(shop.getX(), shop.getY()));
+            if (index != null) {
+                index.put(shop.getId(), shop.getTypeId(), shop.getX(), shop.getY());
             }
+            count++;
+        }
+        locationsByType.forEach((typeId, locations) -> redisTemplate.opsForGeo().add(SHOP_GEO_KEY + typeId, locations));
+        return count;
+    }
 
-            return rebuildCache(id);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            lock.unlock();
+    private boolean mightExist(Long id) {
+        BloomFilter filter = shopIdFilter;
+        if (filter == null || filter.mightContain(id)) {
+            return true;
         }
+        shopIdFilterRejectedCount.increment();
+        return false;
     }
 
-    private Shop queryWithLogicExpirationRebuildStrategy(Long id) throws JsonProcessingException {
-        final String lockKey = LOCK_SHOP_KEY + id;
+    private void addToShopIdFilter(Long id) {
+        BloomFilter filter = shopIdFilter;
+        if (filter != null) {
+            filter.put(id);
+        }
+        // the id may be missed by a scan that is in progress
+        BloomFilter building = buildingShopIdFilter;
+        if (building != null) {
+            building.put(id);
+        }
+    }
 
-        Lock lock = new SimpleRedisLock(lockKey, redisTemplate);
-        CacheResult<RedisData<Shop>> result = queryFromCacheWithLogicalExpiration(id);
-        if (result.isHit()) {
-            if (result.getData().getExpireTime().isAfter(LocalDateTime.now())) {
-                return result.getData().getData();
-            }
+    private void onShopNotFound(Long id) {
+        if (shopIdFilter != null) {
+            shopIdFilterPassedMissingCount.increment();
+            log.debug("Shop id filter passed a missing shop: {}", id);
+        }
+    }
+
+    @Override
+    public Result query(Long id) throws JsonProcessingException {
+        if (!mightExist(id)) {
+            return Result.fail("Shop not found");
+        }
+        shopAccessLog.record(id);
 
-            // async rebuild
-            boolean isLocked = lock.tryLock(LOCK_SHOP_TTL);
-            if (isLocked) {
-                executorService.submit(() -> {
-                    try {
-                        // double check to prevent race condition
-                        CacheResult<RedisData<Shop>> r = queryFromCacheWithLogicalExpiration(id);
-                        if (r.isHit() && r.getData().getExpireTime().isAfter(LocalDateTime.now())) {
-                            return;
-                        }
-                        rebuildCacheWithLogicalExpiration(id);
-                    } catch (JsonProcessingException e) {
-                        throw new RuntimeException(e);
-                    } finally {
-                        lock.unlock();
-                    }
-                });
+        Shop shop = shopCache.get(id);
+        if (shop == null) {
+            return Result.fail("Shop not found");
+        }
+        return Result.ok(shop);
+    }
+
+    /**
+     * Pages the shops of a type, nearest first when the coordinates are given.
+     * */
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+        // a page before the first reads the first page, like the MySQL paging
+        current = Math.max(current, 1);
+        if (x == null || y == null) {
+            if (current <= cacheShopTypePages) {
+                List<Shop> shops = queryCachedShopPage(typeId.longValue(), (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE,
+                        SystemConstants.DEFAULT_PAGE_SIZE);
+                if (shops != null) {
+                    return Result.ok(shops);
+                }
+            }
+            return Result.ok(queryShopPageByType(typeId, current));
+        }
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        List<GeoGridIndex.Neighbor> neighbors;
+        GeoGridIndex index = shopGeoIndex;
+        if (index != null && shopIndexesLoaded) {
+            neighbors = index.nearest(typeId, x, y, shopGeoRadiusMeters, end);
+        } else {
+            neighbors = queryNearbyFromRedis(typeId, x, y, end);
+            if (neighbors == null) {
+                log.warn("Shop geo set of type {} is not loaded, paging shops without distance", typeId);
+                return Result.ok(queryShopPageByType(typeId, current));
             }
-            return result.getData().getData();
         }
+        if (neighbors.size() <= from) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<GeoGridIndex.Neighbor> page = neighbors.subList(from, neighbors.size());
+        List<Long> ids = new ArrayList<>(page.size());
+        for (GeoGridIndex.Neighbor neighbor : page) {
+            ids.add(neighbor.getId());
+        }
+        Map<Long, Shop> shops = queryBatchFromCache(ids);
+        List<Shop> nearby = new ArrayList<>(ids.size());
+        for (GeoGridIndex.Neighbor neighbor : page) {
+            Shop shop = shops.get(neighbor.getId());
+            if (shop == null) {
+                continue;
+            }
+            // the cached instance is shared, the distance depends on the request
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class);
+            copy.setDistance(neighbor.getDistance());
+            nearby.add(copy);
+        }
+        return Result.ok(nearby);
+    }
 
+    /**
+     * Pages the shops of a type in id order from the cursor, without OFFSET and COUNT.
+     * */
+    @Override
+    public Result scrollShopByType(Integer typeId, String cursor) {
+        long[] after;
         try {
-            boolean isLocked = lock.tryLock(LOCK_SHOP_TTL);
-            if (!isLocked) {
-                Thread.sleep(30);
-                return queryWithLogicExpirationRebuildStrategy(id);
-            }
-            log.info("Initializing shop cache: {}", id);
+            after = ScrollCursor.parse(cursor, 1);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("Invalid cursor");
+        }
+        List<Shop> shops = queryCachedShopPageAfter(typeId.longValue(), after == null ? null : after[0]);
+        if (shops == null) {
+            shops = query()
+                    .eq("type_id", typeId)
+                    .gt(after != null, "id", after == null ? null : after[0])
+                    .orderByAsc("id")
+                    .last("limit " + (SystemConstants.DEFAULT_PAGE_SIZE + 1))
+                    .list();
+        }
+        return Result.ok(ScrollResult.of(shops, SystemConstants.DEFAULT_PAGE_SIZE, shop -> ScrollCursor.of(shop.getId())));
+    }
 
-            // double check to prevent race condition
-            result = queryFromCacheWithLogicalExpiration(id);
-            if (result.isHit()) {
-                return result.getData().getData();
-            }
+    private List<Long> loadShopTypePageIds(Long typeId) {
+        List<Shop> shops = query()
+                .select("id")
+                .eq("type_id", typeId)
+                .orderByAsc("id")
+                .last("limit " + (cacheShopTypePages * SystemConstants.DEFAULT_PAGE_SIZE + 1))
+                .list();
+        List<Long> ids = new ArrayList<>(shops.size());
+        for (Shop shop : shops) {
+            ids.add(shop.getId());
+        }
+        return ids;
+    }
 
-            return rebuildCacheWithLogicalExpiration(id);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            lock.unlock();
+    /**
+     * @return the shops of [from, from + limit) of the type from the cached pages, null if not cached
+     * */
+    private List<Shop> queryCachedShopPage(Long typeId, int from, int limit) {
+        List<Long> ids = shopTypePageCache.get(typeId);
+        if (ids == null) {
+            return null;
         }
+        if (from >= ids.size()) {
+            return new ArrayList<>();
+        }
+        return hydrateShopTypePage(typeId, ids.subList(from, Math.min(ids.size(), from + limit)));
     }
 
-    private CacheResult<Shop> queryFromCache(Long id) {
-        String result = redisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        if (StringUtils.isNotBlank(result)) {
-            try {
-                return CacheResult.hit(objectMapper.readValue(result, Shop.class));
-            } catch (JsonProcessingException e) {
-                log.error("Failed to deserialize shop data for id: {}", id, e);
-            }
+    /**
+     * @return the page and the row after it from the cached pages, null if they do not reach that far
+     * */
+    private List<Shop> queryCachedShopPageAfter(Long typeId, Long afterId) {
+        List<Long> ids = shopTypePageCache.get(typeId);
+        if (ids == null) {
+            return null;
         }
-        if (result != null) {
-            return CacheResult.hit(null);
+        int from = 0;
+        if (afterId != null) {
+            int position = Collections.binarySearch(ids, afterId);
+            from = position >= 0 ? position + 1 : -position - 1;
         }
-        return CacheResult.miss();
+        int end = from + SystemConstants.DEFAULT_PAGE_SIZE + 1;
+        boolean complete = ids.size() <= cacheShopTypePages * SystemConstants.DEFAULT_PAGE_SIZE;
+        if (end > ids.size() && !complete) {
+            return null;
+        }
+        return hydrateShopTypePage(typeId, ids.subList(Math.min(from, ids.size()), Math.min(end, ids.size())));
     }
 
-    private Shop rebuildCache(Long id) throws JsonProcessingException {
-        log.info("Rebuilding cache for shop id: {}", id);
-        Shop shop = getById(id);
+    /**
+     * A shop that is gone or changed type, through the change log, refreshes the ids of the type
+     * and this request reads MySQL.
+     * */
+    private List<Shop> hydrateShopTypePage(Long typeId, List<Long> ids) {
+        List<Shop> shops = hydrate(ids);
+        boolean stale = shops.size() < ids.size();
+        for (Shop shop : shops) {
+            stale |= !typeId.equals(shop.getTypeId());
+        }
+        if (stale) {
+            log.info("Cached pages of shop type {} are stale, refreshing", typeId);
+            shopTypePageCache.refresh(Collections.singletonList(typeId));
+            return null;
+        }
+        return shops;
+    }
 
-        // simulate rebuilding
+    /**
+     * Pages the shops matching the name from the cursor, in rank order from the local index once it is loaded,
+     * in id order from MySQL before. A cursor of the other order is rejected.
+     * */
+    @Override
+    public Result scrollShopByName(String name, String cursor) {
+        ShopNameIndex index = shopNameIndex;
         try {
-            log.info("Sleeping for 200ms to simulate rebuilding cache");
-            Thread.sleep(200);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            if (StrUtil.isBlank(name) || index == null || !shopIndexesLoaded) {
+                long[] after = ScrollCursor.parse(cursor, 1);
+                List<Shop> shops = query()
+                        .like(StrUtil.isNotBlank(name), "name", name)
+                        .gt(after != null, "id", after == null ? null : after[0])
+                        .orderByAsc("id")
+                        .last("limit " + (SystemConstants.MAX_PAGE_SIZE + 1))
+                        .list();
+                return Result.ok(ScrollResult.of(shops, SystemConstants.MAX_PAGE_SIZE, shop -> ScrollCursor.of(shop.getId())));
+            }
+            ShopNameIndex.SearchResult result = index.searchAfter(name, cursor, SystemConstants.MAX_PAGE_SIZE);
+            ScrollResult page = new ScrollResult();
+            page.setList(hydrate(result.getShopIds()));
+            page.setCursor(result.getCursor());
+            return Result.ok(page);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("Invalid cursor");
         }
+    }
 
-        if (shop == null) {
-            redisTemplate.opsForValue().set(
-                    CACHE_SHOP_KEY + id,
-                    "",
-                    cacheShopNullTtlSeconds, TimeUnit.SECONDS);
-        } else {
-            redisTemplate.opsForValue().set(
-                    CACHE_SHOP_KEY + id,
-                    objectMapper.writeValueAsString(shop),
-                    cacheShopTtlSeconds, TimeUnit.SECONDS);
+    /**
+     * Pages the shops whose name or area contains the text, ranked by the local index once it is loaded.
+     * */
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        // a page before the first reads the first page, like the MySQL paging
+        current = Math.max(current, 1);
+        ShopNameIndex index = shopNameIndex;
+        if (StrUtil.isBlank(name) || index == null || !shopIndexesLoaded) {
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
         }
-        log.info("Cache rebuilt for shop id: {}", id);
-        return shop;
+        ShopNameIndex.SearchResult result = index.search(name, (current - 1) * SystemConstants.MAX_PAGE_SIZE, SystemConstants.MAX_PAGE_SIZE);
+        return Result.ok(hydrate(result.getShopIds()), (long) result.getTotal());
     }
 
-    private CacheResult<RedisData<Shop>> queryFromCacheWithLogicalExpiration(Long id) {
-        String result = redisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        if (StringUtils.isNotBlank(result)) {
-            try {
-                return CacheResult.hit(objectMapper.readValue(result, new TypeReference<RedisData<Shop>>() {}));
-            } catch (JsonProcessingException e) {
-                log.error("Failed to deserialize shop data for id: {}", id, e);
+    /**
+     * @return the existing shops in the order of the ids
+     * */
+    private List<Shop> hydrate(Collection<Long> ids) {
+        Map<Long, Shop> shops = queryBatchFromCache(ids);
+        List<Shop> result = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Shop shop = shops.get(id);
+            if (shop != null) {
+                result.add(shop);
             }
         }
-        if (result != null) {
-            return CacheResult.hit(null);
+        return result;
+    }
+
+    /**
+     * @return the nearest shops of [0, end), null if the geo set of the type is not loaded
+     * */
+    private List<GeoGridIndex.Neighbor> queryNearbyFromRedis(Integer typeId, double x, double y, int end) {
+        String key = SHOP_GEO_KEY + typeId;
+        // GEOSEARCH is not available in this client, GEORADIUS returns the nearest [0, end), the page is the tail
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = redisTemplate.opsForGeo().radius(
+                key,
+                new Circle(new Point(x, y), new Distance(shopGeoRadiusMeters, RedisGeoCommands.DistanceUnit.METERS)),
+                RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(end));
+        if (results == null || results.getContent().isEmpty()) {
+            return Boolean.TRUE.equals(redisTemplate.hasKey(key)) ? Collections.emptyList() : null;
+        }
+        List<GeoGridIndex.Neighbor> neighbors = new ArrayList<>(results.getContent().size());
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results) {
+            neighbors.add(new GeoGridIndex.Neighbor(Long.parseLong(result.getContent().getName()), result.getDistance().getValue()));
+        }
+        return neighbors;
+    }
+
+    @Override
+    public Result queryBatch(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        if (ids.size() > MAX_BATCH_SIZE) {
+            return Result.fail("Too many shop ids, at most " + MAX_BATCH_SIZE);
+        }
+        return Result.ok(hydrate(new LinkedHashSet<>(ids)));
+    }
+
+    /**
+     * Loads the shops missing from Redis with the batch path.
+     * @return number of existing shops among the ids
+     * */
+    @Override
+    public int warmUpCache(List<Long> ids) {
+        return queryBatchFromCache(ids).size();
+    }
+
+    private List<Shop> queryShopPageByType(Integer typeId, Integer current) {
+        Page<Shop> page = query()
+                .eq("type_id", typeId)
+                .orderByAsc("id")
+                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
+        return page.getRecords();
+    }
+
+    /**
+     * Shops that do not exist are absent from the result.
+     * */
+    Map<Long, Shop> queryBatchFromCache(Collection<Long> ids) {
+        List<Long> candidates = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            if (mightExist(id)) {
+                candidates.add(id);
+            }
         }
-        return CacheResult.miss();
+        return shopCache.getAll(candidates);
     }
 
-    private Shop rebuildCacheWithLogicalExpiration(Long id) throws JsonProcessingException {
+    private Shop loadShop(Long id) {
         log.info("Rebuilding cache for shop id: {}", id);
         Shop shop = getById(id);
 
@@ -238,17 +743,34 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
+        return shop;
+    }
 
-        if (shop == null) {
-            redisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, "");
-        } else {
-            RedisData<Shop> data = new RedisData<>();
-            data.setData(shop);
-            data.setExpireTime(LocalDateTime.now().plusSeconds(cacheShopTtlSeconds));
-            redisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, objectMapper.writeValueAsString(data));
+    private Map<Long, Shop> loadShops(Collection<Long> ids) {
+        Map<Long, Shop> shops = new HashMap<>();
+        for (Shop shop : listByIds(ids)) {
+            shops.put(shop.getId(), shop);
         }
-        log.info("Cache rebuilt for shop id: {}", id);
-        return shop;
+        return shops;
+    }
+
+    @Override
+    public Result saveShop(Shop shop) {
+        save(shop);
+        Long id = shop.getId();
+        addToShopIdFilter(id);
+        if (cacheShopBloomEnabled) {
+            cacheInvalidationBus.publish(SHOP_ID_FILTER_NAME, id);
+        }
+        addShopGeo(Collections.singletonList(shop));
+        addToShopNameIndex(Collections.singletonList(shop));
+        publishShopIndexEntries(Collections.singletonList(id), Collections.singletonMap(id, shop));
+        if (shop.getTypeId() != null) {
+            shopTypePageCache.invalidate(shop.getTypeId());
+        }
+        // drop the null value cached while the id did not exist
+        shopCache.invalidate(id);
+        return Result.ok(id);
     }
 
     @Override
@@ -258,8 +780,78 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("Invalid shop id");
         }
+        boolean moved = shop.getTypeId() != null || shop.getX() != null || shop.getY() != null;
+        Shop old = moved ? getById(id) : null;
         updateById(shop);
-        redisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        shopCache.invalidate(id);
+        reindexShops(Collections.singletonList(id));
+        if (old != null) {
+            moveShopGeo(old, shop);
+            if (shop.getTypeId() != null && !shop.getTypeId().equals(old.getTypeId())) {
+                shopTypePageCache.invalidate(shop.getTypeId());
+                if (old.getTypeId() != null) {
+                    shopTypePageCache.invalidate(old.getTypeId());
+                }
+            }
+        }
         return Result.ok();
     }
+
+    private void moveShopGeo(Shop old, Shop update) {
+        Long typeId = update.getTypeId() != null ? update.getTypeId() : old.getTypeId();
+        if (old.getTypeId() != null && !old.getTypeId().equals(typeId)) {
+            redisTemplate.opsForGeo().remove(SHOP_GEO_KEY + old.getTypeId(), old.getId().toString());
+        }
+        Shop moved = new Shop()
+                .setId(old.getId())
+                .setTypeId(typeId)
+                .setX(update.getX() != null ? update.getX() : old.getX())
+                .setY(update.getY() != null ? update.getY() : old.getY());
+        addShopGeo(Collections.singletonList(moved));
+    }
+
+    /**
+     * Overwrites the cached shops with their current rows, for the change log tailer.
+     * The geo sets only get the new coordinates, a shop that changed type is moved by {@link #update(Shop)}.
+     * */
+    @Override
+    public void refreshCache(Collection<Long> ids) {
+        Map<Long, Shop> shops = shopCache.refresh(ids);
+        shops.keySet().forEach(this::addToShopIdFilter);
+        if (cacheShopBloomEnabled && !shops.isEmpty()) {
+            cacheInvalidationBus.publish(SHOP_ID_FILTER_NAME, shops.keySet());
+        }
+        addShopGeo(shops.values());
+        publishShopIndexEntries(ids, shops);
+        // the previous type of a shop is not known here, its pages are refreshed when read
+        Set<Long> typeIds = new HashSet<>();
+        for (Shop shop : shops.values()) {
+            if (shop.getTypeId() != null) {
+                typeIds.add(shop.getTypeId());
+            }
+        }
+        shopTypePageCache.refresh(typeIds);
+    }
+
+    @Override
+    public Result queryCacheStats() {
+        Map<String, Object> stats = shopCache.stats();
+        BloomFilter filter = shopIdFilter;
+        if (filter != null) {
+            stats.put("bloomExpectedFpp", filter.expectedFpp());
+            stats.put("bloomRejected", shopIdFilterRejectedCount.sum());
+            stats.put("bloomPassedMissing", shopIdFilterPassedMissingCount.sum());
+        }
+        return Result.ok(stats);
+    }
+
+    @Override
+    public Result queryHotKeys() {
+        return Result.ok(shopCache.hotKeys());
+    }
+
+    @Override
+    public Result queryExpiryDistribution() {
+        return Result.ok(shopCache.expiryDistribution());
+    }
 }
@@ -1,11 +1,42 @@
 package com.hmdp.service.impl;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheInvalidationBus;
+import com.hmdp.utils.JsonSnapshot;
+import com.hmdp.utils.TtlJitter;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_VERSION_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +45,160 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    private static final String SHOP_TYPE_CACHE_NAME = "shop-type";
+    private static final String SHOP_TYPE_VERSION_KEY = CACHE_VERSION_KEY + SHOP_TYPE_CACHE_NAME;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    @Autowired
+    CacheInvalidationBus cacheInvalidationBus;
+
+    @Value("${cache.shop-type.ttl.jitter.ratio:0.1}")
+    double cacheShopTypeTtlJitterRatio;
+
+    /**
+     * Type list of the version in Redis when it was loaded, replaced as a whole when the version moves.
+     * */
+    private volatile JsonSnapshot<List<ShopType>> typeListSnapshot;
+
+    @PostConstruct
+    public void init() {
+        cacheInvalidationBus.subscribe(SHOP_TYPE_CACHE_NAME, versions -> checkTypeListVersion());
+    }
+
+    @Override
+    public Result queryTypeList() {
+        return Result.ok(queryTypeListSnapshot().getValue());
+    }
+
+    @Override
+    public JsonSnapshot<List<ShopType>> queryTypeListSnapshot() {
+        JsonSnapshot<List<ShopType>> snapshot = typeListSnapshot;
+        return snapshot != null ? snapshot : loadTypeListSnapshot(null);
+    }
+
+    @Override
+    public Result refreshTypeList() {
+        redisTemplate.delete(CACHE_SHOP_TYPE_KEY);
+        Long version = redisTemplate.opsForValue().increment(SHOP_TYPE_VERSION_KEY);
+        // every node, this one included, reloads on the message
+        cacheInvalidationBus.publish(SHOP_TYPE_CACHE_NAME, version);
+        return Result.ok(version);
+    }
+
+    /**
+     * Reloads the snapshot when the version in Redis differs from its own.
+     * Also polled, so a node that missed the pub/sub message catches up.
+     * */
+    @Scheduled(fixedDelayString = "${cache.shop-type.version.check.interval.millis:30000}")
+    public void checkTypeListVersion() {
+        JsonSnapshot<List<ShopType>> snapshot = typeListSnapshot;
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            long version = currentVersion();
+            if (version != snapshot.getVersion()) {
+                loadTypeListSnapshot(snapshot);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to check the shop type version, keeping version {}", snapshot.getVersion(), e);
+        }
+    }
+
+    /**
+     * @param stale the snapshot to replace, null to load the first one, skipped if another thread replaced it already
+     * */
+    private synchronized JsonSnapshot<List<ShopType>> loadTypeListSnapshot(JsonSnapshot<List<ShopType>> stale) {
+        JsonSnapshot<List<ShopType>> snapshot = typeListSnapshot;
+        if (snapshot != stale) {
+            return snapshot;
+        }
+        // the version is read first, a bump while loading leaves the snapshot behind and it is loaded again
+        long version = currentVersion();
+        List<ShopType> typeList = loadTypeList();
+        try {
+            snapshot = JsonSnapshot.of(objectMapper, version, typeList, Result.ok(typeList));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize shop types", e);
+        }
+        typeListSnapshot = snapshot;
+        log.info("Loaded {} shop types of version {}", typeList.size(), version);
+        return snapshot;
+    }
+
+    private long currentVersion() {
+        String version = redisTemplate.opsForValue().get(SHOP_TYPE_VERSION_KEY);
+        return version == null ? 0L : Long.parseLong(version);
+    }
+
+    private List<ShopType> loadTypeList() {
+        List<ShopType> typeList = getShopTypeListFromRedis();
+        if (typeList != null) {
+            return Collections.unmodifiableList(typeList);
+        }
+        typeList = query().orderByAsc("sort").list();
+        if (typeList == null || typeList.isEmpty()) {
+            return Collections.emptyList();
+        }
+        saveShopTypeListToRedis(typeList);
+        return Collections.unmodifiableList(typeList);
+    }
+
+    private List<ShopType> getShopTypeListFromRedis() {
+        Set<String> result = redisTemplate.opsForZSet().range(CACHE_SHOP_TYPE_KEY, 0, -1);
+        if (result == null || result.isEmpty()) {
+            return null;
+        }
+        try {
+            return deserializeShopTypes(result);
+        } catch (JsonProcessingException e) {
+            log.error("Failed to deserialize shop types", e);
+            return null;
+        }
+    }
+
+    private void saveShopTypeListToRedis(List<ShopType> typeList) {
+        try {
+            Set<ZSetOperations.TypedTuple<String>> shopTypes = serializeShopTypes(typeList);
+            long ttlSeconds = TtlJitter.apply(TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TYPE_TTL), cacheShopTypeTtlJitterRatio);
+            redisTemplate.execute(new SessionCallback<List<Object>>() {
+                @Override
+                public <K, V> List<Object> execute(RedisOperations<K, V> redisOperations) throws DataAccessException {
+                    StringRedisTemplate operations = (StringRedisTemplate) redisOperations;
+                    operations.multi();
+                    operations.opsForZSet().add(CACHE_SHOP_TYPE_KEY, shopTypes);
+                    operations.expire(CACHE_SHOP_TYPE_KEY, ttlSeconds, TimeUnit.SECONDS);
+                    return operations.exec();
+                }
+            });
+        } catch (JsonProcessingException e) {
+            log.error("Failed to serialize shop types", e);
+        }
+    }
+
+    private List<ShopType> deserializeShopTypes(Set<String> result) throws JsonProcessingException {
+        List<ShopType> typeList = new ArrayList<>();
+        for (String json : result) {
+            typeList.add(objectMapper.readValue(json, ShopType.class));
+        }
+        return typeList;
+    }
+
+    private Set<ZSetOperations.TypedTuple<String>> serializeShopTypes(List<ShopType> typeList) throws JsonProcessingException {
+        Set<ZSetOperations.TypedTuple<String>> shopTypes = new HashSet<>();
+        for (ShopType shopType : typeList) {
+            Integer sort = shopType.getSort();
+            shopTypes.add(new DefaultTypedTuple<>(objectMapper.writeValueAsString(shopType), sort == null ? 0.0 : sort.doubleValue()));
+        }
+        return shopTypes;
+    }
 }
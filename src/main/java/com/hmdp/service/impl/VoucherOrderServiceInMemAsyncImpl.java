@@ -1,7 +1,6 @@
 package com.hmdp.service.impl;
 
 import java.time.LocalDateTime;
-import java.util.Collections;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
@@ -14,9 +13,7 @@ import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
@@ -27,6 +24,7 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.utils.GlobalIDGenerator;
+import com.hmdp.utils.SeckillStockShards;
 import com.hmdp.utils.UserHolder;
 
 import static com.hmdp.utils.RedisConstants.LOCK_VOUCHER_ORDER_KEY;
@@ -38,13 +36,6 @@ public class VoucherOrderServiceInMemAsyncImpl extends ServiceImpl<VoucherOrderM
 
     private static final BlockingQueue<VoucherOrder> VOUCHER_ORDER_QUEUE = new ArrayBlockingQueue<>(1024 * 1024);
     private static final ExecutorService SECKILL_VOUCHER_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
-    private static final DefaultRedisScript<Long> SECKILL_PREORDER_SCRIPT;
-
-    static {
-        SECKILL_PREORDER_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_PREORDER_SCRIPT.setLocation(new ClassPathResource("seckill_preorder.lua"));
-        SECKILL_PREORDER_SCRIPT.setResultType(Long.class);
-    }
 
     private boolean isRunning = true;
 
@@ -60,6 +51,9 @@ public class VoucherOrderServiceInMemAsyncImpl extends ServiceImpl<VoucherOrderM
     @Autowired
     private GlobalIDGenerator globalIDGenerator;
 
+    @Autowired
+    private SeckillStockShards seckillStockShards;
+
     private IVoucherOrderService proxy;
 
     @PostConstruct
@@ -105,18 +99,20 @@ public class VoucherOrderServiceInMemAsyncImpl extends ServiceImpl<VoucherOrderM
     @Override
     public Result seckillVoucher(Long voucherId) {
         Long userId = UserHolder.getUser().getId();
-        Result result = preorderVoucher(userId, voucherId);
+        long voucherOrderId = globalIDGenerator.nextId("voucher_order");
+        int shard = seckillStockShards.preorder(voucherId, userId, voucherOrderId);
+        Result result = preorderResult(shard);
         if (!result.getSuccess()) {
             return result;
         }
 
-        long voucherOrderId = globalIDGenerator.nextId("voucher_order");
         VoucherOrder voucherOrder = new VoucherOrder();
-        voucherOrder.setId(globalIDGenerator.nextId("voucher_order"));
-        voucherOrder.setUserId(UserHolder.getUser().getId());
+        voucherOrder.setId(voucherOrderId);
+        voucherOrder.setUserId(userId);
         voucherOrder.setVoucherId(voucherId);
 
         assignVoucherOrder(voucherOrder);
+        seckillStockShards.confirm(voucherId, userId, shard);
         return Result.ok(voucherOrderId);
     }
 
@@ -127,23 +123,16 @@ public class VoucherOrderServiceInMemAsyncImpl extends ServiceImpl<VoucherOrderM
         VOUCHER_ORDER_QUEUE.add(voucherOrder);
     }
 
-    private Result preorderVoucher(Long userId, Long voucherId) {
-        Long preorderResult = redisTemplate.execute(SECKILL_PREORDER_SCRIPT, Collections.emptyList(), voucherId.toString(), userId.toString());
-        if (preorderResult == null) {
-            return Result.fail("preorder failed");
-        }
-        if (preorderResult == -1L) {
+    private static Result preorderResult(int shard) {
+        if (shard == SeckillStockShards.NOT_FOUND) {
             return Result.fail("voucher not found");
         }
-        if (preorderResult == -2L) {
+        if (shard == SeckillStockShards.SOLD_OUT) {
             return Result.fail("voucher is out of stock");
         }
-        if (preorderResult == -3L) {
+        if (shard == SeckillStockShards.ORDERED_ALREADY) {
             return Result.fail("user has already ordered this voucher");
         }
-        if (preorderResult != 0L) {
-            return Result.fail("unknown error");
-        }
         return Result.ok();
     }
 
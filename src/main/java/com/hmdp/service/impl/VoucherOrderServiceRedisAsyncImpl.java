@@ -1,15 +1,22 @@
 package com.hmdp.service.impl;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -17,15 +24,28 @@ import javax.annotation.PreDestroy;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.ByteRecord;
 import org.springframework.data.redis.connection.stream.Consumer;
 import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
 import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
 import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
 import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamInfo;
 import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -37,11 +57,18 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.utils.GlobalIDGenerator;
+import com.hmdp.utils.Lock;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.UserHolder;
 
-import io.lettuce.core.Range;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.StrUtil;
 import lombok.extern.slf4j.Slf4j;
 
+import static com.hmdp.utils.RedisConstants.LOCK_SECKILL_RECONCILE_KEY;
+
 /**
  * @author Ernie Lee
  */
@@ -50,22 +77,25 @@ import lombok.extern.slf4j.Slf4j;
 public class VoucherOrderServiceRedisAsyncImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
     private static final String VOUCHER_ORDER_STREAM_NAME = "stream.orders";
-    private static final ExecutorService SECKILL_VOUCHER_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
-    private static final DefaultRedisScript<Long> SECKILL_PREORDER_SCRIPT;
+    private static final String VOUCHER_ORDER_GROUP_NAME = "g1";
+
+    private static final DefaultRedisScript<Long> DELETE_IDLE_CONSUMER_SCRIPT;
 
     static {
-        SECKILL_PREORDER_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_PREORDER_SCRIPT.setLocation(new ClassPathResource("seckill_preorder2.lua"));
-        SECKILL_PREORDER_SCRIPT.setResultType(Long.class);
+        DELETE_IDLE_CONSUMER_SCRIPT = new DefaultRedisScript<>();
+        DELETE_IDLE_CONSUMER_SCRIPT.setLocation(new ClassPathResource("stream_delete_idle_consumer.lua"));
+        DELETE_IDLE_CONSUMER_SCRIPT.setResultType(Long.class);
     }
 
-    private boolean isRunning = true;
+    private volatile boolean isRunning = true;
+    private ExecutorService consumerExecutor;
+    private final List<String> consumerNames = new ArrayList<>();
 
     @Autowired
-    private ISeckillVoucherService seckillVoucherService;
+    ISeckillVoucherService seckillVoucherService;
 
     @Autowired
-    private StringRedisTemplate redisTemplate;
+    StringRedisTemplate redisTemplate;
 
     @Autowired
     private RedissonClient redissonClient;
@@ -74,42 +104,298 @@ public class VoucherOrderServiceRedisAsyncImpl extends ServiceImpl<VoucherOrderM
     private GlobalIDGenerator globalIDGenerator;
 
     @Autowired
-    private IVoucherOrderService proxy;
+    private SeckillStockShards seckillStockShards;
+
+    @Value("${seckill.order.id.segment.size:1000}")
+    int orderIdSegmentSize;
+
+    @Value("${seckill.order.batch.size:100}")
+    int orderBatchSize;
+
+    /**
+     * Name of this node in the consumer names, the host name by default.
+     * The name survives restarts, so a restarted node finishes its own pending records first.
+     * Nodes sharing a host need a name each.
+     * */
+    @Value("${seckill.order.consumer.node:}")
+    String consumerNode;
+
+    @Value("${seckill.order.consumer.threads:1}")
+    int consumerThreads;
+
+    @Value("${seckill.order.claim.idle.millis:60000}")
+    long claimIdleMillis;
+
+    @Value("${seckill.order.claim.interval.millis:10000}")
+    long claimIntervalMillis;
+
+    /**
+     * Age of a preorder still unconfirmed before it is settled, far longer than a request takes.
+     * */
+    @Value("${seckill.order.reconcile.grace.millis:60000}")
+    long reconcileGraceMillis;
+
+    @Value("${seckill.order.reconcile.lock.ttl.seconds:30}")
+    long reconcileLockTtlSeconds;
+
+    @Autowired
+    IVoucherOrderService proxy;
 
     @PostConstruct
     public void init() {
-        SECKILL_VOUCHER_ORDER_EXECUTOR.execute(() -> {
-            while (isRunning) {
+        createGroup();
+        String node = consumerNode();
+        consumerExecutor = Executors.newFixedThreadPool(consumerThreads, new NamedThreadFactory("seckill-order-consumer-", false));
+        for (int i = 0; i < consumerThreads; i++) {
+            String consumerName = node + "-" + i;
+            consumerNames.add(consumerName);
+            consumerExecutor.execute(() -> consume(Consumer.from(VOUCHER_ORDER_GROUP_NAME, consumerName)));
+        }
+        log.info("{} consumers of {} started as {}", consumerThreads, VOUCHER_ORDER_STREAM_NAME, consumerNames);
+    }
+
+    private String consumerNode() {
+        if (!consumerNode.isEmpty()) {
+            return consumerNode;
+        }
+        String hostName = NetUtil.getLocalHostName();
+        if (StrUtil.isBlank(hostName)) {
+            throw new IllegalStateException("Cannot resolve the host name, set seckill.order.consumer.node");
+        }
+        return hostName;
+    }
+
+    private void createGroup() {
+        try {
+            redisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    VOUCHER_ORDER_STREAM_NAME.getBytes(StandardCharsets.UTF_8), VOUCHER_ORDER_GROUP_NAME, ReadOffset.from("0"), true));
+            log.info("consumer group {} of {} is created", VOUCHER_ORDER_GROUP_NAME, VOUCHER_ORDER_STREAM_NAME);
+        } catch (DataAccessException e) {
+            String message = NestedExceptionUtils.getMostSpecificCause(e).getMessage();
+            if (message == null || !message.contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private void consume(Consumer consumer) {
+        // own pending records first, left by a previous run under the same name
+        while (isRunning) {
+            try {
                 List<MapRecord<String, Object, Object>> list = redisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                        consumer,
+                        StreamReadOptions.empty().count(orderBatchSize),
                         StreamOffset.create(VOUCHER_ORDER_STREAM_NAME, ReadOffset.from("0")));
                 if (list == null || list.isEmpty()) {
                     break;
                 }
-                handleMessage(list.get(0));
+                handleBatch(list);
+            } catch (Exception e) {
+                log.error("failed to read pending voucher orders of {}", consumer.getName(), e);
+                sleepQuietly();
             }
-            while (isRunning) {
+        }
+        long lastClaim = System.currentTimeMillis();
+        while (isRunning) {
+            try {
+                if (System.currentTimeMillis() - lastClaim >= claimIntervalMillis) {
+                    lastClaim = System.currentTimeMillis();
+                    claimIdleOrders(consumer);
+                }
                 List<MapRecord<String, Object, Object>> list = redisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                        consumer,
+                        StreamReadOptions.empty().count(orderBatchSize).block(Duration.ofSeconds(2)),
                         StreamOffset.create(VOUCHER_ORDER_STREAM_NAME, ReadOffset.lastConsumed()));
                 if (list == null || list.isEmpty()) {
                     continue;
                 }
-                handleMessage(list.get(0));
+                handleBatch(list);
+            } catch (Exception e) {
+                log.error("failed to read voucher orders of {}", consumer.getName(), e);
+                sleepQuietly();
+            }
+        }
+    }
+
+    /**
+     * Takes over the records delivered to other consumers and not acknowledged for claimIdleMillis,
+     * those of a stopped or stuck node, so its share of the stream moves to the live ones.
+     * XCLAIM checks the idle time again, so a record is claimed by one consumer only.
+     * The pending list is paged through up to a batch of idle records, as those of a stopped node
+     * may come after records of live consumers that are not idle yet.
+     * */
+    void claimIdleOrders(Consumer consumer) {
+        Duration minIdle = Duration.ofMillis(claimIdleMillis);
+        List<RecordId> idleIds = new ArrayList<>();
+        Range<String> range = Range.unbounded();
+        while (idleIds.size() < orderBatchSize) {
+            PendingMessages pending = redisTemplate.opsForStream().pending(
+                    VOUCHER_ORDER_STREAM_NAME, VOUCHER_ORDER_GROUP_NAME, range, orderBatchSize);
+            if (pending == null || pending.isEmpty()) {
+                break;
+            }
+            for (PendingMessage message : pending) {
+                if (idleIds.size() < orderBatchSize
+                        && !message.getConsumerName().equals(consumer.getName())
+                        && message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0) {
+                    idleIds.add(message.getId());
+                }
+            }
+            if (pending.size() < orderBatchSize) {
+                break;
+            }
+            // exclusive ranges need Redis 6.2, the next page starts at the id right after the last one
+            RecordId last = pending.get(pending.size() - 1).getId();
+            range = Range.rightUnbounded(Range.Bound.inclusive(RecordId.of(last.getTimestamp(), last.getSequence() + 1).getValue()));
+        }
+        if (idleIds.isEmpty()) {
+            return;
+        }
+        List<ByteRecord> claimed = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection -> connection.streamCommands().xClaim(
+                VOUCHER_ORDER_STREAM_NAME.getBytes(StandardCharsets.UTF_8), VOUCHER_ORDER_GROUP_NAME, consumer.getName(),
+                minIdle, idleIds.toArray(new RecordId[0])));
+        if (claimed == null || claimed.isEmpty()) {
+            return;
+        }
+        List<MapRecord<String, Object, Object>> records = new ArrayList<>(claimed.size());
+        for (ByteRecord record : claimed) {
+            Map<Object, Object> fields = new HashMap<>();
+            record.getValue().forEach((field, value) ->
+                    fields.put(new String(field, StandardCharsets.UTF_8), new String(value, StandardCharsets.UTF_8)));
+            records.add(StreamRecords.newRecord().in(VOUCHER_ORDER_STREAM_NAME).withId(record.getId()).ofMap(fields));
+        }
+        log.info("{} claimed {} idle voucher orders", consumer.getName(), records.size());
+        handleBatch(records);
+    }
+
+    /**
+     * Removes the consumers of other nodes idle for claimIdleMillis with nothing pending, left by stopped nodes
+     * or renamed ones, so the group does not collect them. Live consumers read every few seconds and are never idle that long,
+     * a removed one would be created again by its next read.
+     * */
+    @Scheduled(fixedDelayString = "${seckill.order.claim.interval.millis:10000}")
+    public void removeIdleConsumers() {
+        StreamInfo.XInfoConsumers consumers;
+        try {
+            consumers = redisTemplate.opsForStream().consumers(VOUCHER_ORDER_STREAM_NAME, VOUCHER_ORDER_GROUP_NAME);
+        } catch (RuntimeException e) {
+            log.warn("failed to list the consumers of {}", VOUCHER_ORDER_STREAM_NAME, e);
+            return;
+        }
+        consumers.forEach(consumer -> {
+            if (consumerNames.contains(consumer.consumerName())
+                    || consumer.pendingCount() > 0 || consumer.idleTimeMs() < claimIdleMillis) {
+                return;
+            }
+            // pending records are checked again in the script, a record read meanwhile keeps the consumer
+            Long deleted = redisTemplate.execute(DELETE_IDLE_CONSUMER_SCRIPT, Collections.singletonList(VOUCHER_ORDER_STREAM_NAME),
+                    VOUCHER_ORDER_GROUP_NAME, consumer.consumerName());
+            if (deleted != null && deleted == 0L) {
+                log.info("idle consumer {} of {} is removed", consumer.consumerName(), VOUCHER_ORDER_STREAM_NAME);
+            }
+        });
+    }
+
+    private static void sleepQuietly() {
+        try {
+            TimeUnit.SECONDS.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates the orders of the records in one transaction and acknowledges them with one XACK.
+     * If the batch fails, the records are handled one by one, so one bad record does not hold back the others.
+     * */
+    void handleBatch(List<MapRecord<String, Object, Object>> records) {
+        try {
+            handleVoucherOrders(records);
+            RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+            redisTemplate.opsForStream().acknowledge(VOUCHER_ORDER_STREAM_NAME, VOUCHER_ORDER_GROUP_NAME, ids);
+        } catch (Throwable e) {
+            log.error("failed to process {} voucher orders in a batch, processing them one by one", records.size(), e);
+            records.forEach(this::handleMessage);
+        }
+    }
+
+    private void handleVoucherOrders(List<MapRecord<String, Object, Object>> records) {
+        Map<Long, List<VoucherOrder>> ordersByVoucher = new LinkedHashMap<>();
+        Set<String> users = new HashSet<>();
+        for (MapRecord<String, Object, Object> record : records) {
+            VoucherOrder voucherOrder;
+            try {
+                voucherOrder = toVoucherOrder(record);
+            } catch (IllegalStateException e) {
+                log.error("invalid voucher order record {}", record.getId(), e);
+                continue;
+            }
+            if (!users.add(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId())) {
+                log.error("user has already ordered this voucher: userId={}, voucherId={}", voucherOrder.getUserId(), voucherOrder.getVoucherId());
+                continue;
+            }
+            ordersByVoucher.computeIfAbsent(voucherOrder.getVoucherId(), id -> new ArrayList<>()).add(voucherOrder);
+        }
+        if (ordersByVoucher.isEmpty()) {
+            return;
+        }
+
+        Map<Long, SeckillVoucher> vouchers = new HashMap<>();
+        for (SeckillVoucher voucher : seckillVoucherService.listByIds(ordersByVoucher.keySet())) {
+            vouchers.put(voucher.getVoucherId(), voucher);
+        }
+        // orders of a record delivered again after a crash are in the table already,
+        // skipped here to spare the insert, the unique key of user and voucher skips those ordered meanwhile
+        Set<String> orderedUsers = queryOrderedUsers(ordersByVoucher);
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        ordersByVoucher.forEach((voucherId, orders) -> {
+            SeckillVoucher voucher = vouchers.get(voucherId);
+            Result validateVoucherResult = voucher == null ? Result.fail("voucher not found") : validateVoucher(voucher);
+            if (!validateVoucherResult.getSuccess()) {
+                log.error("invalid voucher: voucherId={}, orders={}, msg={}", voucherId, orders.size(), validateVoucherResult.getErrorMsg());
+                return;
+            }
+            for (VoucherOrder voucherOrder : orders) {
+                if (orderedUsers.contains(voucherOrder.getUserId() + ":" + voucherId)) {
+                    log.error("user has already ordered this voucher: userId={}, voucherId={}", voucherOrder.getUserId(), voucherId);
+                } else {
+                    voucherOrders.add(voucherOrder);
+                }
             }
         });
+        if (!voucherOrders.isEmpty()) {
+            proxy.createVoucherOrders(voucherOrders);
+            log.info("{} voucher orders are created", voucherOrders.size());
+        }
+    }
+
+    /**
+     * @return userId:voucherId of the given orders that exist already, in one query
+     * */
+    Set<String> queryOrderedUsers(Map<Long, List<VoucherOrder>> ordersByVoucher) {
+        Set<Long> userIds = new HashSet<>();
+        ordersByVoucher.values().forEach(orders -> orders.forEach(order -> userIds.add(order.getUserId())));
+        Set<String> orderedUsers = new HashSet<>();
+        for (VoucherOrder order : query().select("user_id", "voucher_id")
+                .in("voucher_id", ordersByVoucher.keySet())
+                .in("user_id", userIds)
+                .list()) {
+            orderedUsers.add(order.getUserId() + ":" + order.getVoucherId());
+        }
+        return orderedUsers;
     }
 
     private void handleMessage(MapRecord<String, Object, Object> record) {
         try {
             VoucherOrder voucherOrder = toVoucherOrder(record);
             handleVoucherOrder(voucherOrder);
+        } catch (DuplicateKeyException e) {
+            // created by an earlier delivery of the record, the transaction took no stock
+            log.info("voucher order of record {} exists already", record.getId());
         } catch (Throwable e) {
             log.error("failed to process voucher order", e);
         } finally {
-            redisTemplate.opsForStream().acknowledge(VOUCHER_ORDER_STREAM_NAME, "g1", record.getId());
+            redisTemplate.opsForStream().acknowledge(VOUCHER_ORDER_STREAM_NAME, VOUCHER_ORDER_GROUP_NAME, record.getId());
         }
     }
 
@@ -178,40 +464,80 @@ public class VoucherOrderServiceRedisAsyncImpl extends ServiceImpl<VoucherOrderM
     @Override
     public Result seckillVoucher(Long voucherId) {
 //        initializeProxyService();
+        if (seckillStockShards.isSoldOut(voucherId)) {
+            return Result.fail("voucher is out of stock");
+        }
         Long userId = UserHolder.getUser().getId();
-        long voucherOrderId = globalIDGenerator.nextId("voucher_order");
-
-        Result result = preorderVoucher(userId, voucherId, voucherOrderId);
-        if (!result.getSuccess()) {
-            return result;
+        // allocated before the stock is taken, so a failed allocation cannot strand a unit of stock,
+        // an id of a rejected request is lost, mostly from the block held by this node
+        long voucherOrderId = globalIDGenerator.nextBufferedId("voucher_order", orderIdSegmentSize);
+        int shard = seckillStockShards.preorder(voucherId, userId, voucherOrderId);
+        if (shard == SeckillStockShards.NOT_FOUND) {
+            return Result.fail("voucher not found");
+        }
+        if (shard == SeckillStockShards.SOLD_OUT) {
+            return Result.fail("voucher is out of stock");
+        }
+        if (shard == SeckillStockShards.ORDERED_ALREADY) {
+            return Result.fail("user has already ordered this voucher");
+        }
+        try {
+            queueVoucherOrder(userId, voucherId, voucherOrderId);
+        } catch (RuntimeException e) {
+            seckillStockShards.cancel(voucherId, userId, shard);
+            throw e;
+        }
+        try {
+            seckillStockShards.confirm(voucherId, userId, shard);
+        } catch (RuntimeException e) {
+            // the order is queued, the preorder left behind is settled by the reconciliation
+            log.warn("failed to confirm the preorder of user {} for voucher {}", userId, voucherId, e);
         }
         return Result.ok(voucherOrderId);
     }
 
+    /**
+     * Settles the preorders left unconfirmed for reconcileGraceMillis by a node stopped between taking the stock
+     * and queuing the order, on one node at a time, for the vouchers on sale until a day ago.
+     * */
+    @Scheduled(fixedDelayString = "${seckill.order.reconcile.interval.millis:30000}")
+    public void reconcilePreorders() {
+        Lock lock = new SimpleRedisLock(LOCK_SECKILL_RECONCILE_KEY, redisTemplate);
+        if (!lock.tryLock(reconcileLockTtlSeconds)) {
+            return;
+        }
+        try {
+            long staleBefore = System.currentTimeMillis() - reconcileGraceMillis;
+            List<SeckillVoucher> vouchers = seckillVoucherService.query().ge("end_time", LocalDateTime.now().minusDays(1)).list();
+            for (SeckillVoucher voucher : vouchers) {
+                Long voucherId = voucher.getVoucherId();
+                int settled = seckillStockShards.reconcile(voucherId, staleBefore,
+                        userId -> !validateOneVoucherPerUser(userId, voucherId).getSuccess(),
+                        (userId, orderId) -> queueVoucherOrder(userId, voucherId, orderId));
+                if (settled > 0) {
+                    log.info("settled {} preorders of voucher {}", settled, voucherId);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("failed to reconcile the seckill preorders, they are retried on the next run", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     private void initializeProxyService() {
         if (proxy == null) {
             proxy = (IVoucherOrderService) AopContext.currentProxy();
         }
     }
 
-    private Result preorderVoucher(Long userId, Long voucherId, Long orderId) {
-        Long preorderResult = redisTemplate.execute(SECKILL_PREORDER_SCRIPT, Collections.emptyList(), voucherId.toString(), userId.toString(), orderId.toString());
-        if (preorderResult == null) {
-            return Result.fail("preorder failed");
-        }
-        if (preorderResult == -1L) {
-            return Result.fail("voucher not found");
-        }
-        if (preorderResult == -2L) {
-            return Result.fail("voucher is out of stock");
-        }
-        if (preorderResult == -3L) {
-            return Result.fail("user has already ordered this voucher");
-        }
-        if (preorderResult != 0L) {
-            return Result.fail("unknown error");
-        }
-        return Result.ok();
+    private void queueVoucherOrder(Long userId, Long voucherId, Long orderId) {
+        Map<String, String> order = new HashMap<>();
+        order.put("userId", userId.toString());
+        order.put("voucherId", voucherId.toString());
+        order.put("id", orderId.toString());
+        // the stock shards live in other slots than the stream, so the order is queued after the script and the preorder confirmed after
+        redisTemplate.opsForStream().add(StreamRecords.newRecord().in(VOUCHER_ORDER_STREAM_NAME).ofMap(order));
     }
 
 
@@ -240,9 +566,56 @@ public class VoucherOrderServiceRedisAsyncImpl extends ServiceImpl<VoucherOrderM
         return Result.ok(voucherOrder.getId());
     }
 
+    /**
+     * Inserts the orders of each voucher with one multi-row INSERT, then takes the stock of the rows inserted with one update.
+     * Orders in the table already, of a record delivered again, are skipped by the unique keys and take no stock.
+     * Fails as a whole if a voucher has less stock left than it has new orders.
+     * @return the number of orders inserted
+     * */
+    @Transactional
+    @Override
+    public Result createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        Map<Long, List<VoucherOrder>> ordersByVoucher = new LinkedHashMap<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            ordersByVoucher.computeIfAbsent(voucherOrder.getVoucherId(), id -> new ArrayList<>()).add(voucherOrder);
+        }
+        int created = 0;
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersByVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            int inserted = getBaseMapper().insertBatch(entry.getValue());
+            if (inserted < entry.getValue().size()) {
+                log.info("{} orders of voucher {} exist already", entry.getValue().size() - inserted, voucherId);
+            }
+            if (inserted == 0) {
+                continue;
+            }
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + inserted)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", inserted)
+                    .update();
+            if (!success) {
+                throw new IllegalStateException("voucher " + voucherId + " has less stock than " + inserted + " orders");
+            }
+            created += inserted;
+        }
+        return Result.ok(created);
+    }
+
     @PreDestroy
-    public void destroy() {
+    public void destroy() throws InterruptedException {
         isRunning = false;
-        SECKILL_VOUCHER_ORDER_EXECUTOR.shutdown();
+        consumerExecutor.shutdown();
+        if (!consumerExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+            return;
+        }
+        // consumers with pending records stay, other nodes claim the records once idle
+        for (String consumerName : consumerNames) {
+            Consumer consumer = Consumer.from(VOUCHER_ORDER_GROUP_NAME, consumerName);
+            PendingMessages pending = redisTemplate.opsForStream().pending(VOUCHER_ORDER_STREAM_NAME, consumer);
+            if (pending != null && pending.isEmpty()) {
+                redisTemplate.opsForStream().deleteConsumer(VOUCHER_ORDER_STREAM_NAME, consumer);
+            }
+        }
     }
 }
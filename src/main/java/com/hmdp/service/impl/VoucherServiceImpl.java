@@ -1,21 +1,35 @@
 package com.hmdp.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheClientFactory;
+import com.hmdp.utils.HotKeyCache;
+import com.hmdp.utils.RedisData;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.codec.JsonCacheCodec;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import javax.annotation.PostConstruct;
+
+import lombok.extern.slf4j.Slf4j;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_KEY;
 
 /**
  * <p>
@@ -25,23 +39,93 @@ import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
+    private static final String VOUCHER_CACHE_NAME = "voucher";
+
+    @Autowired
+    ISeckillVoucherService seckillVoucherService;
+
     @Autowired
-    private ISeckillVoucherService seckillVoucherService;
+    SeckillStockShards seckillStockShards;
 
     @Autowired
-    private StringRedisTemplate redisTemplate;
+    ObjectMapper objectMapper;
+
+    @Autowired
+    CacheClientFactory cacheClientFactory;
+
+    @Value("${seckill.stock.shards:1}")
+    int seckillStockShardCount;
+
+    @Value("${cache.voucher.ttl.seconds:60}")
+    int cacheVoucherTtlSeconds;
+
+    @Value("${cache.voucher.ttl.jitter.ratio:0.1}")
+    double cacheVoucherTtlJitterRatio;
+
+    @Value("${cache.voucher.rebuild.strategy:mutex}")
+    String cacheVoucherRebuildStrategy;
+
+    @Value("${cache.voucher.local.capacity:10000}")
+    int cacheVoucherLocalCapacity;
+
+    @Value("${cache.voucher.local.ttl.seconds:5}")
+    int cacheVoucherLocalTtlSeconds;
+
+    @Value("${cache.hotkey.sketch.width:4096}")
+    int cacheHotKeySketchWidth;
+
+    @Value("${cache.hotkey.threshold:50}")
+    long cacheHotKeyThreshold;
+
+    @Value("${cache.hotkey.window.millis:1000}")
+    long cacheHotKeyWindowMillis;
+
+    @Value("${cache.hotkey.max.size:100}")
+    int cacheHotKeyMaxSize;
+
+    @Value("${cache.hotkey.local.ttl.millis:1000}")
+    long cacheHotKeyLocalTtlMillis;
+
+    /**
+     * Voucher lists by shop id.
+     * */
+    CacheClient<Long, List<Voucher>> voucherCache;
+
+    @PostConstruct
+    public void init() {
+        voucherCache = cacheClientFactory.<Long, List<Voucher>>builder(VOUCHER_CACHE_NAME, CACHE_SHOP_VOUCHER_KEY)
+                .strategy(cacheVoucherRebuildStrategy)
+                .ttlSeconds(cacheVoucherTtlSeconds)
+                .ttlJitterRatio(cacheVoucherTtlJitterRatio)
+                .localCache(cacheVoucherLocalCapacity, cacheVoucherLocalTtlSeconds)
+                .codec(new JsonCacheCodec<>(objectMapper, new TypeReference<List<Voucher>>() {}),
+                        new JsonCacheCodec<>(objectMapper, new TypeReference<RedisData<List<Voucher>>>() {}))
+                .loader(shopId -> getBaseMapper().queryVoucherOfShop(shopId))
+                .keyParser(Long::valueOf)
+                .hotKeyCache(new HotKeyCache<>(
+                        cacheHotKeySketchWidth, cacheHotKeyThreshold, cacheHotKeyWindowMillis, cacheHotKeyMaxSize, cacheHotKeyLocalTtlMillis))
+                .build();
+    }
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        List<Voucher> vouchers = voucherCache.get(shopId);
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    @Override
+    @Transactional
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+        voucherCache.invalidate(voucher.getShopId());
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -54,6 +138,59 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        redisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        Integer stockShards = voucher.getStockShards();
+        seckillStockShards.create(voucher.getId(), voucher.getStock(), stockShards == null ? seckillStockShardCount : stockShards);
+        voucherCache.invalidate(voucher.getShopId());
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer stock) {
+        if (stock == null || stock < 1) {
+            return Result.fail("stock must be positive");
+        }
+        if (!seckillStockShards.exists(voucherId)) {
+            return Result.fail("voucher not found");
+        }
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + stock)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("voucher not found");
+        }
+        // Redis only gets the stock once MySQL has it, a failed commit must not leave stock to oversell,
+        // a failed restock after the commit leaves MySQL ahead, which only undersells
+        Runnable restock = () -> {
+            if (!seckillStockShards.restock(voucherId, stock)) {
+                log.error("Voucher {} has no seckill stock in Redis, {} units added in MySQL only", voucherId, stock);
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    restock.run();
+                }
+            });
+        } else {
+            restock.run();
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result queryCacheStats() {
+        return Result.ok(voucherCache.stats());
+    }
+
+    @Override
+    public Result queryHotKeys() {
+        return Result.ok(voucherCache.hotKeys());
+    }
+
+    @Override
+    public Result queryExpiryDistribution() {
+        return Result.ok(voucherCache.expiryDistribution());
     }
 }
@@ -0,0 +1,862 @@
+package com.hmdp.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.hmdp.utils.codec.CacheCodec;
+
+import lombok.extern.slf4j.Slf4j;
+
+import static com.hmdp.utils.RedisConstants.CACHE_VERSION_KEY;
+
+/**
+ * Read-through cache of one entity type, an L1 near cache in front of Redis in front of a loader.
+ * Protects the loader against penetration with cached null values,
+ * and against breakdown with one of the rebuild strategies:
+ * <ul>
+ *     <li>simple: every miss loads</li>
+ *     <li>mutex: one caller per key rebuilds under a distributed lock, the others wait</li>
+ *     <li>logic-expiration: entries never expire in Redis, stale ones are served and refreshed asynchronously</li>
+ *     <li>probabilistic: like logic-expiration, but refreshed early with a probability rising near expiry (XFetch)</li>
+ * </ul>
+ * Built by {@link CacheClientFactory#builder(String, String)}.
+ *
+ * @author Ernie Lee
+ */
+@Slf4j
+public class CacheClient<K, V> {
+
+    private static final byte[] NULL_VALUE = new byte[0];
+    private static final long LOCK_RETRY_MIN_MILLIS = 10;
+    private static final long LOCK_RETRY_MAX_MILLIS = 100;
+    private static final long EXPIRY_SLOT_MILLIS = 1000;
+    private static final Long WRITTEN = 1L;
+    private static final DefaultRedisScript<Long> SET_IF_VERSION_SCRIPT;
+    private static final DefaultRedisScript<Long> INVALIDATE_SCRIPT;
+    static {
+        SET_IF_VERSION_SCRIPT = new DefaultRedisScript<>();
+        SET_IF_VERSION_SCRIPT.setLocation(new ClassPathResource("cache_set_if_version.lua"));
+        SET_IF_VERSION_SCRIPT.setResultType(Long.class);
+        INVALIDATE_SCRIPT = new DefaultRedisScript<>();
+        INVALIDATE_SCRIPT.setLocation(new ClassPathResource("cache_invalidate.lua"));
+        INVALIDATE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final String name;
+    private final String keyPrefix;
+    private final String lockKeyPrefix;
+    private final long lockTtlSeconds;
+    private final String strategy;
+    private final long ttlSeconds;
+    private final long nullTtlSeconds;
+    private final double ttlJitterRatio;
+    private final long versionTtlSeconds;
+    private final long doubleDeleteDelayMillis;
+    private final double probabilisticBeta;
+    private final CacheCodec<V> codec;
+    private final CacheCodec<RedisData<V>> dataCodec;
+    private final Function<K, V> loader;
+    private final Function<Collection<K>, Map<K, V>> batchLoader;
+    private final Consumer<K> onNotFound;
+    private final HotKeyCache<K, V> hotKeyCache;
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisTemplate<String, byte[]> bytesRedisTemplate;
+    private final CacheInvalidationBus cacheInvalidationBus;
+    private final CacheRebuildExecutor cacheRebuildExecutor;
+    private final ScheduledExecutorService doubleDeleteScheduler;
+
+    /**
+     * L1 caches in front of Redis, one per value layout.
+     * Only the one matching the rebuild strategy is used.
+     * */
+    private final LocalCache<K, V> localCache;
+    private final LocalCache<K, RedisData<V>> localDataCache;
+
+    private final SingleFlight<K, V> loads;
+
+    private final LongAdder redisHitCount = new LongAdder();
+    private final LongAdder redisMissCount = new LongAdder();
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder versionConflictCount = new LongAdder();
+    private final ExpiryHistogram expiryHistogram;
+
+    private CacheClient(Builder<K, V> builder) {
+        this.name = builder.name;
+        this.keyPrefix = builder.keyPrefix;
+        this.lockKeyPrefix = builder.lockKeyPrefix == null ? builder.name + ":" : builder.lockKeyPrefix;
+        this.lockTtlSeconds = builder.lockTtlSeconds;
+        this.strategy = builder.strategy;
+        this.ttlSeconds = builder.ttlSeconds;
+        this.nullTtlSeconds = builder.nullTtlSeconds;
+        this.ttlJitterRatio = builder.ttlJitterRatio;
+        this.versionTtlSeconds = builder.versionTtlSeconds;
+        this.doubleDeleteDelayMillis = builder.doubleDeleteDelayMillis;
+        this.loads = new SingleFlight<>(builder.loadWaitMillis);
+        // one slot per second, long enough for the longest jittered ttl
+        this.expiryHistogram = new ExpiryHistogram(
+                EXPIRY_SLOT_MILLIS, (int) (Math.max(ttlSeconds, nullTtlSeconds) * (1 + ttlJitterRatio)) + 2);
+        this.probabilisticBeta = builder.probabilisticBeta;
+        this.codec = builder.codec;
+        this.dataCodec = builder.dataCodec;
+        this.loader = builder.loader;
+        this.batchLoader = builder.batchLoader;
+        this.onNotFound = builder.onNotFound;
+        this.hotKeyCache = builder.hotKeyCache;
+        this.redisTemplate = builder.redisTemplate;
+        this.bytesRedisTemplate = builder.bytesRedisTemplate;
+        this.cacheInvalidationBus = builder.cacheInvalidationBus;
+        this.cacheRebuildExecutor = builder.cacheRebuildExecutor;
+        this.doubleDeleteScheduler = builder.doubleDeleteScheduler;
+        long localTtlMillis = TimeUnit.SECONDS.toMillis(builder.localTtlSeconds);
+        this.localCache = new LocalCache<>(builder.localCapacity, localTtlMillis);
+        this.localDataCache = new LocalCache<>(builder.localCapacity, localTtlMillis);
+    }
+
+    /**
+     * @return the value, null if the loader has none
+     * */
+    public V get(K key) {
+        if (hotKeyCache != null) {
+            return hotKeyCache.get(key, () -> getWithStrategy(key));
+        }
+        return getWithStrategy(key);
+    }
+
+    private V getWithStrategy(K key) {
+        switch (strategy) {
+            case "simple":
+                return getWithSimpleRebuildStrategy(key);
+            case "mutex":
+                return getWithMutexRebuildStrategy(key);
+            case "logic-expiration":
+            case "probabilistic":
+                return getWithLogicalExpiration(key);
+            default:
+                throw new IllegalStateException("Unknown cache rebuild strategy: " + strategy);
+        }
+    }
+
+    /**
+     * Resolves the values from L1, then with one MGET, then with one batch load for the misses, which are written back in one pipeline.
+     * Stale logically expiring entries are served and refreshed asynchronously as in {@link #get(Object)}.
+     * Keys without a value are absent from the result.
+     * */
+    public Map<K, V> getAll(Collection<K> keys) {
+        Map<K, V> values = new HashMap<>();
+        List<K> remoteKeys = new ArrayList<>();
+        for (K key : keys) {
+            CacheResult<V> result = readFromLocalCache(key);
+            if (!result.isHit()) {
+                remoteKeys.add(key);
+            } else if (result.getData() != null) {
+                values.put(key, result.getData());
+            }
+        }
+        if (remoteKeys.isEmpty()) {
+            return values;
+        }
+
+        // the versions come with the values, a miss is rebuilt against the version read here
+        int count = remoteKeys.size();
+        List<String> redisKeys = new ArrayList<>(count * 2);
+        for (K key : remoteKeys) {
+            redisKeys.add(keyPrefix + key);
+        }
+        for (K key : remoteKeys) {
+            redisKeys.add(versionKey(key));
+        }
+        List<byte[]> remoteValues = bytesRedisTemplate.opsForValue().multiGet(redisKeys);
+        List<K> missedKeys = new ArrayList<>();
+        List<byte[]> missedVersions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            K key = remoteKeys.get(i);
+            CacheResult<V> result = readFromRemoteValue(key, remoteValues == null ? null : remoteValues.get(i));
+            if (!result.isHit()) {
+                missedKeys.add(key);
+                missedVersions.add(remoteValues == null ? null : remoteValues.get(count + i));
+            } else if (result.getData() != null) {
+                values.put(key, result.getData());
+            }
+        }
+        if (!missedKeys.isEmpty()) {
+            values.putAll(rebuildCacheBatch(missedKeys, missedVersions));
+        }
+        return values;
+    }
+
+    /**
+     * Reloads the values and overwrites their entries in one pipeline, keys without a value get the null value.
+     * L1 is evicted on every node.
+     * @return the reloaded values
+     * */
+    public Map<K, V> refresh(Collection<K> keys) {
+        if (keys.isEmpty()) {
+            return new HashMap<>();
+        }
+        List<K> keyList = new ArrayList<>(keys);
+        List<String> versionKeys = new ArrayList<>(keyList.size());
+        for (K key : keyList) {
+            versionKeys.add(versionKey(key));
+        }
+        List<byte[]> versions = bytesRedisTemplate.opsForValue().multiGet(versionKeys);
+        Map<K, V> values = rebuildCacheBatch(keyList, versions == null ? new ArrayList<>() : versions);
+        if (hotKeyCache != null) {
+            keys.forEach(hotKeyCache::invalidate);
+        }
+        cacheInvalidationBus.publish(name, keys);
+        return values;
+    }
+
+    /**
+     * Deletes the entry in Redis and evicts it from L1 on every node, after commit inside a transaction,
+     * so a reader missing meanwhile cannot load the old row under the new version.
+     * Bumps the version, so a rebuild that loaded the value before cannot write it back.
+     * Deletes once more after a delay, for a reader that loaded the old row right before the commit
+     * and had not read the version yet.
+     * */
+    public void invalidate(K key) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    deleteTwice(key);
+                }
+            });
+        } else {
+            deleteTwice(key);
+        }
+    }
+
+    private void deleteTwice(K key) {
+        try {
+            delete(key);
+        } finally {
+            doubleDeleteScheduler.schedule(() -> {
+                try {
+                    delete(key);
+                } catch (Exception e) {
+                    log.error("Failed to delete cache {} again for key: {}", name, key, e);
+                }
+            }, doubleDeleteDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void delete(K key) {
+        redisTemplate.execute(INVALIDATE_SCRIPT, Arrays.asList(keyPrefix + key, versionKey(key)), String.valueOf(versionTtlSeconds));
+        evictLocal(key);
+        cacheInvalidationBus.publish(name, key);
+    }
+
+    /**
+     * The version key hashes to the slot of the cache key, so the compare-and-set and invalidation scripts
+     * touch a single slot of a cluster: a cache key without a hash tag becomes the hash tag of its version key,
+     * a cache key with one is appended as is and its hash tag comes first.
+     * */
+    String versionKey(K key) {
+        String cacheKey = keyPrefix + key;
+        int open = cacheKey.indexOf('{');
+        boolean tagged = open >= 0 && cacheKey.indexOf('}', open) > open + 1;
+        return tagged ? CACHE_VERSION_KEY + cacheKey : CACHE_VERSION_KEY + "{" + cacheKey + "}";
+    }
+
+    public void evictLocal(K key) {
+        localCache.invalidate(key);
+        localDataCache.invalidate(key);
+        if (hotKeyCache != null) {
+            hotKeyCache.invalidate(key);
+        }
+    }
+
+    private boolean usesLocalCache() {
+        return "simple".equals(strategy) || "mutex".equals(strategy);
+    }
+
+    private CacheResult<V> readFromLocalCache(K key) {
+        if (usesLocalCache()) {
+            return localCache.get(key);
+        }
+        CacheResult<RedisData<V>> result = localDataCache.get(key);
+        if (result.isHit() && result.getData() != null) {
+            refreshIfStale(key, result.getData());
+        }
+        return unwrap(result);
+    }
+
+    private CacheResult<V> readFromRemoteValue(K key, byte[] value) {
+        if (usesLocalCache()) {
+            CacheResult<V> result = decode(key, value, codec);
+            if (result.isHit()) {
+                localCache.put(key, result.getData());
+            }
+            return result;
+        }
+        CacheResult<RedisData<V>> result = decode(key, value, dataCodec);
+        if (result.isHit()) {
+            localDataCache.put(key, result.getData());
+            if (result.getData() != null) {
+                refreshIfStale(key, result.getData());
+            }
+        }
+        return unwrap(result);
+    }
+
+    /**
+     * @param versions read before loading, by position of the keys
+     * */
+    @SuppressWarnings("unchecked")
+    private Map<K, V> rebuildCacheBatch(List<K> keys, List<byte[]> versions) {
+        long start = System.currentTimeMillis();
+        Map<K, V> values = loadAll(keys);
+        long rebuildCostMillis = System.currentTimeMillis() - start;
+
+        List<PendingWrite<V>> writes = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            writes.add(prepareWrite(key, values.get(key), rebuildCostMillis));
+        }
+        List<Object> results = bytesRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public <RK, RV> Object execute(RedisOperations<RK, RV> redisOperations) throws DataAccessException {
+                RedisOperations<String, byte[]> operations = (RedisOperations<String, byte[]>) redisOperations;
+                for (int i = 0; i < keys.size(); i++) {
+                    writeIfVersion(operations, keys.get(i), writes.get(i), i < versions.size() ? versions.get(i) : null);
+                }
+                return null;
+            }
+        });
+        for (int i = 0; i < keys.size(); i++) {
+            if (results != null && i < results.size() && WRITTEN.equals(results.get(i))) {
+                putLocal(keys.get(i), writes.get(i));
+            }
+        }
+        log.info("Cache {} rebuilt for {} keys, found: {}", name, keys.size(), values.size());
+        return values;
+    }
+
+    private Map<K, V> loadAll(List<K> keys) {
+        loadCount.add(keys.size());
+        if (batchLoader != null) {
+            return batchLoader.apply(keys);
+        }
+        Map<K, V> values = new HashMap<>();
+        for (K key : keys) {
+            V value = loader.apply(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    private V getWithSimpleRebuildStrategy(K key) {
+        CacheResult<V> result = queryFromCache(key);
+        if (result.isHit()) {
+            return result.getData();
+        }
+        return rebuildCache(key);
+    }
+
+    /**
+     * Blocks the callers while the cache is being rebuilt, for high consistency.
+     * */
+    private V getWithMutexRebuildStrategy(K key) {
+        CacheResult<V> result = queryFromCache(key);
+        if (result.isHit()) {
+            return result.getData();
+        }
+        return loads.execute(key, () -> rebuildWithLock(key, () -> queryFromRedis(key), () -> rebuildCache(key)));
+    }
+
+    private V getWithLogicalExpiration(K key) {
+        CacheResult<RedisData<V>> result = queryFromCacheWithLogicalExpiration(key);
+        if (result.isHit()) {
+            RedisData<V> data = result.getData();
+            if (data == null) {
+                return null;
+            }
+            refreshIfStale(key, data);
+            return data.getData();
+        }
+
+        return loads.execute(key, () -> {
+            log.info("Initializing cache {}: {}", name, key);
+            return rebuildWithLock(key, () -> unwrap(queryFromRedisWithLogicalExpiration(key)), () -> rebuildCache(key));
+        });
+    }
+
+    /**
+     * Submits an async refresh of a logically expiring entry when its strategy asks for one.
+     * */
+    private void refreshIfStale(K key, RedisData<V> data) {
+        if ("probabilistic".equals(strategy)) {
+            if (shouldRefreshEarly(data)) {
+                LocalDateTime seenExpireTime = data.getExpireTime();
+                cacheRebuildExecutor.submit(keyPrefix + key, () -> refreshCache(key, seenExpireTime));
+            }
+            return;
+        }
+        if (!data.getExpireTime().isAfter(LocalDateTime.now())) {
+            cacheRebuildExecutor.submit(keyPrefix + key, () -> refreshCache(key, LocalDateTime.now()));
+        }
+    }
+
+    /**
+     * XFetch: each read refreshes the entry early with a probability that rises as the expiry approaches,
+     * scaled by how long the last rebuild took, so a hot key is refreshed by one reader before it expires.
+     * */
+    boolean shouldRefreshEarly(RedisData<V> data) {
+        long rebuildCostMillis = data.getRebuildCostMillis() == null ? 0 : data.getRebuildCostMillis();
+        long remainingMillis = Duration.between(LocalDateTime.now(), data.getExpireTime()).toMillis();
+        // -ln(u) is exponentially distributed, u in (0, 1]
+        double earlyMillis = -rebuildCostMillis * probabilisticBeta * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return earlyMillis >= remainingMillis;
+    }
+
+    /**
+     * Runs on the rebuild executor, the lock is taken here so it is released by the same thread.
+     * @param seenExpireTime the entry is left alone if another node has moved its expiry past this since
+     * */
+    private void refreshCache(K key, LocalDateTime seenExpireTime) {
+        Lock lock = new SimpleRedisLock(lockKeyPrefix + key, redisTemplate);
+        if (!lock.tryLock(lockTtlSeconds)) {
+            // another node is refreshing
+            return;
+        }
+        try {
+            // double check to prevent race condition
+            CacheResult<RedisData<V>> r = queryFromRedisWithLogicalExpiration(key);
+            if (r.isHit() && r.getData() != null && r.getData().getExpireTime().isAfter(seenExpireTime)) {
+                return;
+            }
+            rebuildCache(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static <T> CacheResult<T> unwrap(CacheResult<RedisData<T>> result) {
+        if (!result.isHit()) {
+            return CacheResult.miss();
+        }
+        return CacheResult.hit(result.getData() == null ? null : result.getData().getData());
+    }
+
+    /**
+     * Only the single-flight leader of this node gets here.
+     * It competes for the distributed lock until it rebuilds the cache itself or sees the result of another node.
+     * */
+    private V rebuildWithLock(K key, Supplier<CacheResult<V>> cacheReader, Callable<V> rebuilder) {
+        Lock lock = new SimpleRedisLock(lockKeyPrefix + key, redisTemplate);
+        long backoffMillis = LOCK_RETRY_MIN_MILLIS;
+        try {
+            while (true) {
+                if (lock.tryLock(lockTtlSeconds)) {
+                    try {
+                        // double check to prevent race condition
+                        CacheResult<V> result = cacheReader.get();
+                        if (result.isHit()) {
+                            return result.getData();
+                        }
+                        return rebuilder.call();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+
+                // another node is rebuilding, the lock ttl bounds the wait
+                Thread.sleep(backoffMillis);
+                backoffMillis = Math.min(backoffMillis * 2, LOCK_RETRY_MAX_MILLIS);
+                CacheResult<V> result = cacheReader.get();
+                if (result.isHit()) {
+                    return result.getData();
+                }
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private CacheResult<V> queryFromCache(K key) {
+        CacheResult<V> result = localCache.get(key);
+        if (result.isHit()) {
+            return result;
+        }
+        return queryFromRedis(key);
+    }
+
+    private CacheResult<V> queryFromRedis(K key) {
+        CacheResult<V> result = readFromRedis(key, codec);
+        if (result.isHit()) {
+            localCache.put(key, result.getData());
+        }
+        return result;
+    }
+
+    private CacheResult<RedisData<V>> queryFromCacheWithLogicalExpiration(K key) {
+        CacheResult<RedisData<V>> result = localDataCache.get(key);
+        if (result.isHit()) {
+            return result;
+        }
+        return queryFromRedisWithLogicalExpiration(key);
+    }
+
+    private CacheResult<RedisData<V>> queryFromRedisWithLogicalExpiration(K key) {
+        CacheResult<RedisData<V>> result = readFromRedis(key, dataCodec);
+        if (result.isHit()) {
+            localDataCache.put(key, result.getData());
+        }
+        return result;
+    }
+
+    private <T> CacheResult<T> readFromRedis(K key, CacheCodec<T> codec) {
+        return decode(key, bytesRedisTemplate.opsForValue().get(keyPrefix + key), codec);
+    }
+
+    private <T> CacheResult<T> decode(K key, byte[] value, CacheCodec<T> codec) {
+        if (value == null) {
+            redisMissCount.increment();
+            return CacheResult.miss();
+        }
+        redisHitCount.increment();
+        if (value.length == 0) {
+            return CacheResult.hit(null);
+        }
+        try {
+            return CacheResult.hit(codec.decode(value));
+        } catch (RuntimeException e) {
+            // rebuild over a corrupted entry
+            log.error("Failed to decode cache {} for key: {}", name, key, e);
+            return CacheResult.miss();
+        }
+    }
+
+    private V rebuildCache(K key) {
+        byte[] version = bytesRedisTemplate.opsForValue().get(versionKey(key));
+        loadCount.increment();
+        long start = System.currentTimeMillis();
+        V value = loader.apply(key);
+        long rebuildCostMillis = System.currentTimeMillis() - start;
+
+        PendingWrite<V> write = prepareWrite(key, value, rebuildCostMillis);
+        if (WRITTEN.equals(writeIfVersion(bytesRedisTemplate, key, write, version))) {
+            putLocal(key, write);
+            log.info("Cache {} rebuilt for key: {}", name, key);
+        } else {
+            versionConflictCount.increment();
+            log.info("Cache {} changed while rebuilding key: {}, the loaded value is not written", name, key);
+        }
+        return value;
+    }
+
+    /**
+     * Encodes the value, or the null value, in the layout of the strategy.
+     * The logic-expiration layout has no physical ttl, the probabilistic one also keeps the rebuild cost.
+     * */
+    private PendingWrite<V> prepareWrite(K key, V value, long rebuildCostMillis) {
+        if (value == null) {
+            if (onNotFound != null) {
+                onNotFound.accept(key);
+            }
+            long nullTtl = TtlJitter.apply(nullTtlSeconds, ttlJitterRatio);
+            recordExpiry(nullTtl);
+            return new PendingWrite<>(NULL_VALUE, nullTtl, null, null);
+        }
+        long ttl = TtlJitter.apply(ttlSeconds, ttlJitterRatio);
+        recordExpiry(ttl);
+        if (usesLocalCache()) {
+            return new PendingWrite<>(codec.encode(value), ttl, value, null);
+        }
+
+        RedisData<V> data = new RedisData<>();
+        data.setData(value);
+        data.setExpireTime(LocalDateTime.now().plusSeconds(ttl));
+        if ("probabilistic".equals(strategy)) {
+            data.setRebuildCostMillis(rebuildCostMillis);
+            return new PendingWrite<>(dataCodec.encode(data), ttl, value, data);
+        }
+        return new PendingWrite<>(dataCodec.encode(data), 0, value, data);
+    }
+
+    /**
+     * Writes only if the version is still the one read before loading, and bumps it.
+     * @return {@link #WRITTEN} if written, null inside a pipeline
+     * */
+    private Long writeIfVersion(RedisOperations<String, byte[]> operations, K key, PendingWrite<V> write, byte[] version) {
+        return operations.execute(SET_IF_VERSION_SCRIPT, Arrays.asList(keyPrefix + key, versionKey(key)),
+                version == null ? NULL_VALUE : version,
+                write.bytes,
+                String.valueOf(write.ttlSeconds).getBytes(StandardCharsets.UTF_8),
+                String.valueOf(versionTtlSeconds).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void putLocal(K key, PendingWrite<V> write) {
+        if (usesLocalCache()) {
+            localCache.put(key, write.value);
+        } else {
+            localDataCache.put(key, write.data);
+        }
+    }
+
+    private void recordExpiry(long ttl) {
+        expiryHistogram.record(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl));
+    }
+
+    public List<HotKeyCache.HotKey<K>> hotKeys() {
+        return hotKeyCache == null ? new ArrayList<>() : hotKeyCache.hotKeys();
+    }
+
+    private static class PendingWrite<V> {
+        final byte[] bytes;
+        final long ttlSeconds;
+        final V value;
+        final RedisData<V> data;
+
+        PendingWrite(byte[] bytes, long ttlSeconds, V value, RedisData<V> data) {
+            this.bytes = bytes;
+            this.ttlSeconds = ttlSeconds;
+            this.value = value;
+            this.data = data;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("strategy", strategy);
+        LocalCache<K, ?> local = usesLocalCache() ? localCache : localDataCache;
+        stats.put("localSize", local.size());
+        stats.put("localHits", local.getHitCount());
+        stats.put("localMisses", local.getMissCount());
+        stats.put("redisHits", redisHitCount.sum());
+        stats.put("redisMisses", redisMissCount.sum());
+        stats.put("loads", loadCount.sum());
+        stats.put("loadsInFlight", loads.inFlightCount());
+        stats.put("versionConflicts", versionConflictCount.sum());
+        stats.put("rebuildsPending", cacheRebuildExecutor.getPendingCount());
+        stats.put("rebuildsSubmitted", cacheRebuildExecutor.getSubmittedCount());
+        stats.put("rebuildsDeduplicated", cacheRebuildExecutor.getDeduplicatedCount());
+        stats.put("rebuildsRejected", cacheRebuildExecutor.getRejectedCount());
+        if (hotKeyCache != null) {
+            stats.put("hotKeys", hotKeyCache.hotKeys().size());
+        }
+        stats.put("ttlJitterRatio", ttlJitterRatio);
+        stats.put("expiryPeakShare", expiryHistogram.peakShare());
+        return stats;
+    }
+
+    /**
+     * @return writes by the second their entries expire in, from now on
+     * */
+    public Map<Long, Long> expiryDistribution() {
+        return expiryHistogram.upcoming();
+    }
+
+    public static class Builder<K, V> {
+
+        private final String name;
+        private final String keyPrefix;
+        private final StringRedisTemplate redisTemplate;
+        private final RedisTemplate<String, byte[]> bytesRedisTemplate;
+        private final CacheInvalidationBus cacheInvalidationBus;
+        private final CacheRebuildExecutor cacheRebuildExecutor;
+        private final ScheduledExecutorService doubleDeleteScheduler;
+
+        private String lockKeyPrefix;
+        private long lockTtlSeconds = 10;
+        private String strategy = "mutex";
+        private long ttlSeconds = 120;
+        private long nullTtlSeconds = 30;
+        private double ttlJitterRatio = 0.1;
+        private long versionTtlSeconds = 86400;
+        private long doubleDeleteDelayMillis = 500;
+        private long loadWaitMillis = SingleFlight.DEFAULT_WAIT_MILLIS;
+        private double probabilisticBeta = 1.0;
+        private int localCapacity = 10000;
+        private long localTtlSeconds = 5;
+        private CacheCodec<V> codec;
+        private CacheCodec<RedisData<V>> dataCodec;
+        private Function<K, V> loader;
+        private Function<Collection<K>, Map<K, V>> batchLoader;
+        private Function<String, K> keyParser;
+        private Consumer<K> onNotFound;
+        private HotKeyCache<K, V> hotKeyCache;
+
+        Builder(String name, String keyPrefix, StringRedisTemplate redisTemplate, RedisTemplate<String, byte[]> bytesRedisTemplate,
+                CacheInvalidationBus cacheInvalidationBus, CacheRebuildExecutor cacheRebuildExecutor,
+                ScheduledExecutorService doubleDeleteScheduler) {
+            this.name = name;
+            this.keyPrefix = keyPrefix;
+            this.redisTemplate = redisTemplate;
+            this.bytesRedisTemplate = bytesRedisTemplate;
+            this.cacheInvalidationBus = cacheInvalidationBus;
+            this.cacheRebuildExecutor = cacheRebuildExecutor;
+            this.doubleDeleteScheduler = doubleDeleteScheduler;
+        }
+
+        /**
+         * Prefix of the rebuild lock names, the cache name by default.
+         * */
+        public Builder<K, V> lockKeyPrefix(String lockKeyPrefix) {
+            this.lockKeyPrefix = lockKeyPrefix;
+            return this;
+        }
+
+        /**
+         * Bounds how long a crashed rebuilder blocks the others.
+         * */
+        public Builder<K, V> lockTtlSeconds(long lockTtlSeconds) {
+            this.lockTtlSeconds = lockTtlSeconds;
+            return this;
+        }
+
+        /**
+         * simple, mutex, logic-expiration or probabilistic
+         * */
+        public Builder<K, V> strategy(String strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+
+        public Builder<K, V> ttlSeconds(long ttlSeconds) {
+            this.ttlSeconds = ttlSeconds;
+            return this;
+        }
+
+        public Builder<K, V> nullTtlSeconds(long nullTtlSeconds) {
+            this.nullTtlSeconds = nullTtlSeconds;
+            return this;
+        }
+
+        /**
+         * Each write extends the ttls by a random part of up to this ratio, so keys written together expire apart.
+         * */
+        public Builder<K, V> ttlJitterRatio(double ttlJitterRatio) {
+            this.ttlJitterRatio = ttlJitterRatio;
+            return this;
+        }
+
+        /**
+         * How long the version of a key is kept after its last write, longer than a rebuild can take.
+         * */
+        public Builder<K, V> versionTtlSeconds(long versionTtlSeconds) {
+            this.versionTtlSeconds = versionTtlSeconds;
+            return this;
+        }
+
+        /**
+         * Delay of the second delete after commit, longer than a load of the old row takes to be written back.
+         * */
+        public Builder<K, V> doubleDeleteDelayMillis(long doubleDeleteDelayMillis) {
+            this.doubleDeleteDelayMillis = doubleDeleteDelayMillis;
+            return this;
+        }
+
+        /**
+         * How long a caller waits for a concurrent load of the same key on this node before loading it itself.
+         * */
+        public Builder<K, V> loadWaitMillis(long loadWaitMillis) {
+            this.loadWaitMillis = loadWaitMillis;
+            return this;
+        }
+
+        public Builder<K, V> probabilisticBeta(double probabilisticBeta) {
+            this.probabilisticBeta = probabilisticBeta;
+            return this;
+        }
+
+        public Builder<K, V> localCache(int capacity, long ttlSeconds) {
+            this.localCapacity = capacity;
+            this.localTtlSeconds = ttlSeconds;
+            return this;
+        }
+
+        /**
+         * @param codec of the plain layout used by simple and mutex
+         * @param dataCodec of the logically expiring layout used by logic-expiration and probabilistic
+         * */
+        public Builder<K, V> codec(CacheCodec<V> codec, CacheCodec<RedisData<V>> dataCodec) {
+            this.codec = codec;
+            this.dataCodec = dataCodec;
+            return this;
+        }
+
+        public Builder<K, V> loader(Function<K, V> loader) {
+            this.loader = loader;
+            return this;
+        }
+
+        /**
+         * Loads the misses of {@link CacheClient#getAll(Collection)} at once, the keys without a value are left out.
+         * Falls back to the loader one key at a time.
+         * */
+        public Builder<K, V> batchLoader(Function<Collection<K>, Map<K, V>> batchLoader) {
+            this.batchLoader = batchLoader;
+            return this;
+        }
+
+        /**
+         * Parses the keys broadcast by other nodes, without it L1 is only evicted on this node.
+         * */
+        public Builder<K, V> keyParser(Function<String, K> keyParser) {
+            this.keyParser = keyParser;
+            return this;
+        }
+
+        public Builder<K, V> onNotFound(Consumer<K> onNotFound) {
+            this.onNotFound = onNotFound;
+            return this;
+        }
+
+        public Builder<K, V> hotKeyCache(HotKeyCache<K, V> hotKeyCache) {
+            this.hotKeyCache = hotKeyCache;
+            return this;
+        }
+
+        public CacheClient<K, V> build() {
+            if (loader == null || codec == null || dataCodec == null) {
+                throw new IllegalStateException("Cache " + name + " needs a loader and codecs");
+            }
+            switch (strategy) {
+                case "simple":
+                case "mutex":
+                case "logic-expiration":
+                case "probabilistic":
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown cache rebuild strategy: " + strategy);
+            }
+            CacheClient<K, V> client = new CacheClient<>(this);
+            if (keyParser != null) {
+                cacheInvalidationBus.subscribe(name, keys -> keys.forEach(key -> client.evictLocal(keyParser.apply(key))));
+            }
+            return client;
+        }
+    }
+}
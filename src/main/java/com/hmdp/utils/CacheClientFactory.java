@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+
+/**
+ * Creates {@link CacheClient}s sharing the Redis templates, the invalidation bus, the rebuild executor
+ * and the scheduler of the delayed second deletes.
+ *
+ * @author Ernie Lee
+ */
+@Component
+public class CacheClientFactory {
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisTemplate<String, byte[]> bytesRedisTemplate;
+    private final CacheInvalidationBus cacheInvalidationBus;
+    private final CacheRebuildExecutor cacheRebuildExecutor;
+    private final ScheduledExecutorService doubleDeleteScheduler =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("cache-double-delete-", true));
+
+    public CacheClientFactory(StringRedisTemplate redisTemplate, RedisTemplate<String, byte[]> bytesRedisTemplate,
+                              CacheInvalidationBus cacheInvalidationBus, CacheRebuildExecutor cacheRebuildExecutor) {
+        this.redisTemplate = redisTemplate;
+        this.bytesRedisTemplate = bytesRedisTemplate;
+        this.cacheInvalidationBus = cacheInvalidationBus;
+        this.cacheRebuildExecutor = cacheRebuildExecutor;
+    }
+
+    /**
+     * @param name of the cache, used for the invalidation channel and the default lock names
+     * @param keyPrefix of the Redis keys
+     * */
+    public <K, V> CacheClient.Builder<K, V> builder(String name, String keyPrefix) {
+        return new CacheClient.Builder<>(name, keyPrefix, redisTemplate, bytesRedisTemplate, cacheInvalidationBus, cacheRebuildExecutor,
+                doubleDeleteScheduler);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        doubleDeleteScheduler.shutdown();
+    }
+}
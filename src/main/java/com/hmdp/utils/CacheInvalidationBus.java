@@ -0,0 +1,165 @@
+package com.hmdp.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATION_CHANNEL;
+
+/**
+ * Broadcasts changed keys to every node through Redis pub/sub, so local caches can be evicted cluster-wide.
+ * Keys are buffered and coalesced per cache, then flushed in batches on a short fixed delay.
+ * Entries carrying the changed values are coalesced per key instead, the latest entry of a key wins.
+ *
+ * @author Ernie Lee
+ */
+@Slf4j
+@Component
+public class CacheInvalidationBus {
+
+    private static final String SEPARATOR = ",";
+
+    @Value("${cache.invalidation.batch.size:500}")
+    int batchSize;
+
+    private final Map<String, Set<String>> pendingKeys = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> pendingEntries = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public CacheInvalidationBus(StringRedisTemplate redisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    /**
+     * Queues the key for broadcast. Inside a transaction the key is queued only after commit.
+     * */
+    public void publish(String cacheName, Object key) {
+        publish(cacheName, Collections.singletonList(key));
+    }
+
+    public void publish(String cacheName, Collection<?> keys) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(cacheName, keys);
+                }
+            });
+            return;
+        }
+        enqueue(cacheName, keys);
+    }
+
+    /**
+     * Queues the entry of the key for broadcast, replacing an entry of the same key still queued,
+     * so subscribers receive the latest entry of every key. Inside a transaction the entry is queued only after commit.
+     * @param entry must not contain a comma
+     * */
+    public void publishEntry(String cacheName, Object key, String entry) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueueEntry(cacheName, key, entry);
+                }
+            });
+            return;
+        }
+        enqueueEntry(cacheName, key, entry);
+    }
+
+    private void enqueueEntry(String cacheName, Object key, String entry) {
+        pendingEntries.computeIfAbsent(cacheName, name -> new ConcurrentHashMap<>()).put(key.toString(), entry);
+    }
+
+    private void enqueue(String cacheName, Collection<?> keys) {
+        Set<String> pending = pendingKeys.computeIfAbsent(cacheName, name -> ConcurrentHashMap.newKeySet());
+        for (Object key : keys) {
+            pending.add(key.toString());
+        }
+    }
+
+    public void subscribe(String cacheName, Consumer<List<String>> listener) {
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            try {
+                listener.accept(Arrays.asList(body.split(SEPARATOR)));
+            } catch (Exception e) {
+                log.error("Failed to handle invalidation of cache {}: {}", cacheName, body, e);
+            }
+        }, new ChannelTopic(CACHE_INVALIDATION_CHANNEL + cacheName));
+    }
+
+    @Scheduled(fixedDelayString = "${cache.invalidation.flush.interval.millis:20}")
+    public void flush() {
+        pendingKeys.forEach((cacheName, pending) -> {
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<String> batch = new ArrayList<>(batchSize);
+            for (String key : pending) {
+                // remove before sending, a key queued again meanwhile goes out with the next flush
+                if (!pending.remove(key)) {
+                    continue;
+                }
+                batch.add(key);
+                if (batch.size() >= batchSize) {
+                    send(cacheName, batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                send(cacheName, batch);
+            }
+        });
+        pendingEntries.forEach((cacheName, pending) -> {
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<String> batch = new ArrayList<>(batchSize);
+            for (String key : pending.keySet()) {
+                String entry = pending.remove(key);
+                if (entry == null) {
+                    continue;
+                }
+                batch.add(entry);
+                if (batch.size() >= batchSize) {
+                    send(cacheName, batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                send(cacheName, batch);
+            }
+        });
+    }
+
+    private void send(String cacheName, List<String> keys) {
+        try {
+            redisTemplate.convertAndSend(CACHE_INVALIDATION_CHANNEL + cacheName, String.join(SEPARATOR, keys));
+        } catch (Exception e) {
+            log.error("Failed to broadcast invalidation of cache {}: {} keys", cacheName, keys.size(), e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.hmdp.utils;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs asynchronous cache rebuilds on a fixed pool with a bounded queue.
+ * A key already queued or running is not submitted again, and refreshes that do not fit in the queue are dropped and counted,
+ * the stale value keeps being served until a later read submits it again.
+ *
+ * @author Ernie Lee
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final ThreadPoolExecutor executor;
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder deduplicatedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    public CacheRebuildExecutor(
+            @Value("${cache.rebuild.pool.size:4}") int poolSize,
+            @Value("${cache.rebuild.queue.capacity:256}") int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(
+                poolSize, poolSize,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("cache-rebuild-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * @return false if the key is already pending or the queue is full
+     * */
+    public boolean submit(String key, Runnable task) {
+        if (!pendingKeys.add(key)) {
+            deduplicatedCount.increment();
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("Failed to rebuild cache: {}", key, e);
+                } finally {
+                    pendingKeys.remove(key);
+                }
+            });
+            submittedCount.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingKeys.remove(key);
+            rejectedCount.increment();
+            log.warn("Cache rebuild queue is full, refresh of {} is dropped", key);
+            return false;
+        }
+    }
+
+    public int getPendingCount() {
+        return pendingKeys.size();
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.sum();
+    }
+
+    public long getDeduplicatedCount() {
+        return deduplicatedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            log.warn("Cache rebuild executor did not terminate in time, {} refreshes are dropped", executor.shutdownNow().size());
+        }
+    }
+}
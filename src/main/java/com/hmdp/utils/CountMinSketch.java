@@ -0,0 +1,77 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free count-min sketch. Estimates never undercount, collisions can only overcount.
+ * Counters are halved by {@link #halve()} to age out past traffic.
+ *
+ * @author Ernie Lee
+ */
+public class CountMinSketch {
+
+    private static final int DEPTH = 4;
+
+    private final AtomicLongArray counters;
+    private final int width;
+    private final int mask;
+
+    /**
+     * @param width counters per row, rounded up to a power of two
+     * */
+    public CountMinSketch(int width) {
+        if (width <= 0) {
+            throw new IllegalArgumentException("width must be positive: " + width);
+        }
+        this.width = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        this.mask = this.width - 1;
+        this.counters = new AtomicLongArray(DEPTH * this.width);
+    }
+
+    /**
+     * @return the estimated count of the key including this one
+     * */
+    public long add(Object key) {
+        long hash = mix(key.hashCode());
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, counters.incrementAndGet(index(i, hash1, hash2)));
+        }
+        return min;
+    }
+
+    public long estimate(Object key) {
+        long hash = mix(key.hashCode());
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, counters.get(index(i, hash1, hash2)));
+        }
+        return min;
+    }
+
+    public void halve() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.updateAndGet(i, count -> count >>> 1);
+        }
+    }
+
+    private int index(int row, int hash1, int hash2) {
+        return row * width + ((hash1 + row * hash2) & mask);
+    }
+
+    /**
+     * MurmurHash3 fmix64.
+     * */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts cache writes by the time slot their entry expires in, over a rolling window of slots.
+ * A tall slot means a synchronized miss spike is coming when it is reached.
+ * Slots are reused round robin, a slot of an older period is reset by the next write into it.
+ *
+ * @author Ernie Lee
+ */
+public class ExpiryHistogram {
+
+    private final long slotMillis;
+    private final int slots;
+    private final AtomicLongArray periods;
+    private final AtomicLongArray counts;
+
+    public ExpiryHistogram(long slotMillis, int slots) {
+        this.slotMillis = slotMillis;
+        this.slots = slots;
+        this.periods = new AtomicLongArray(slots);
+        this.counts = new AtomicLongArray(slots);
+    }
+
+    public void record(long expireAtMillis) {
+        long period = expireAtMillis / slotMillis;
+        int slot = (int) (period % slots);
+        long seen = periods.get(slot);
+        if (seen != period) {
+            if (seen > period || !periods.compareAndSet(slot, seen, period)) {
+                // a write to a later period took the slot, or another writer is resetting it
+                if (periods.get(slot) != period) {
+                    return;
+                }
+            } else {
+                counts.set(slot, 0);
+            }
+        }
+        counts.incrementAndGet(slot);
+    }
+
+    /**
+     * @return count by slot start in epoch millis, for the slots from now on that have expiring entries
+     * */
+    public Map<Long, Long> upcoming() {
+        long current = System.currentTimeMillis() / slotMillis;
+        Map<Long, Long> result = new LinkedHashMap<>();
+        for (long period = current; period < current + slots; period++) {
+            int slot = (int) (period % slots);
+            long count = counts.get(slot);
+            if (periods.get(slot) == period && count > 0) {
+                result.put(period * slotMillis, count);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return share of the upcoming expiries in the tallest slot, 1 when they all expire together
+     * */
+    public double peakShare() {
+        long max = 0;
+        long sum = 0;
+        for (long count : upcoming().values()) {
+            max = Math.max(max, count);
+            sum += count;
+        }
+        return sum == 0 ? 0 : (double) max / sum;
+    }
+}
@@ -0,0 +1,258 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import lombok.Value;
+
+/**
+ * In-process spatial index of points grouped by type, for nearby queries without a Redis round trip.
+ * Points are bucketed into fixed-size longitude/latitude grid cells, each cell keeps its ids and coordinates
+ * in primitive arrays. A query scans rings of cells outward from the point, inside the bounding box of the radius,
+ * keeps the nearest points in a bounded heap and stops once the next ring is farther than the farthest kept point.
+ * Distances are haversine on the earth radius of Redis GEO, so both paths order points alike.
+ * The grid does not wrap around the antimeridian.
+ * Points are added, moved and removed one by one under a write lock, queries share a read lock.
+ *
+ * @author Ernie Lee
+ */
+public class GeoGridIndex {
+
+    private static final double EARTH_RADIUS_METERS = 6372797.560856;
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS_METERS;
+    private static final int INITIAL_CELL_CAPACITY = 4;
+
+    private final double cellDegrees;
+    private final Map<Long, Map<Long, Cell>> cellsByType = new HashMap<>();
+    private final Map<Long, Location> locations = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param cellDegrees side of a cell, 0.01 is about 1.1km, close to the usual query radius divided by a few cells
+     * */
+    public GeoGridIndex(double cellDegrees) {
+        if (cellDegrees <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellDegrees);
+        }
+        this.cellDegrees = cellDegrees;
+    }
+
+    /**
+     * Adds the point, or moves it if the id is indexed already.
+     * */
+    public void put(long id, long typeId, double x, double y) {
+        lock.writeLock().lock();
+        try {
+            Location old = locations.get(id);
+            if (old != null) {
+                removeFromCell(id, old);
+            }
+            Location location = new Location(typeId, x, y);
+            locations.put(id, location);
+            cellsByType.computeIfAbsent(typeId, t -> new HashMap<>())
+                    .computeIfAbsent(cellKey(x, y), c -> new Cell())
+                    .add(id, x, y);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            Location old = locations.remove(id);
+            if (old != null) {
+                removeFromCell(id, old);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return locations.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return at most limit points of the type within the radius, nearest first
+     * */
+    public List<Neighbor> nearest(long typeId, double x, double y, double radiusMeters, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        double latDegrees = radiusMeters / METERS_PER_DEGREE;
+        double cos = Math.cos(Math.toRadians(y));
+        double lonDegrees = cos < 1e-9 ? 360 : Math.min(360, latDegrees / cos);
+        long minCx = cellIndex(x - lonDegrees);
+        long maxCx = cellIndex(x + lonDegrees);
+        long minCy = cellIndex(Math.max(-90, y - latDegrees));
+        long maxCy = cellIndex(Math.min(90, y + latDegrees));
+
+        // farthest on top, so it is the one dropped when the heap is full
+        PriorityQueue<Neighbor> heap = new PriorityQueue<>(limit + 1, Comparator.comparingDouble(Neighbor::getDistance).reversed());
+        lock.readLock().lock();
+        try {
+            Map<Long, Cell> cells = cellsByType.get(typeId);
+            if (cells == null) {
+                return Collections.emptyList();
+            }
+            if ((maxCx - minCx + 1) * (maxCy - minCy + 1) > cells.size()) {
+                // a wide radius over a sparse type, cheaper to walk the cells that exist
+                for (Map.Entry<Long, Cell> entry : cells.entrySet()) {
+                    long cx = entry.getKey() >> 32;
+                    long cy = (int) entry.getKey().longValue();
+                    if (cx >= minCx && cx <= maxCx && cy >= minCy && cy <= maxCy) {
+                        collect(entry.getValue(), x, y, latDegrees, radiusMeters, limit, heap);
+                    }
+                }
+            } else {
+                // rings of cells around the cell of the point, until the next ring cannot hold a nearer point
+                long centerCx = cellIndex(x);
+                long centerCy = cellIndex(y);
+                double maxAbsLat = Math.min(90, Math.abs(y) + latDegrees);
+                double ringMeters = cellDegrees * METERS_PER_DEGREE * Math.cos(Math.toRadians(maxAbsLat));
+                long maxRing = Math.max(Math.max(centerCx - minCx, maxCx - centerCx), Math.max(centerCy - minCy, maxCy - centerCy));
+                for (long ring = 0; ring <= maxRing; ring++) {
+                    for (long cx = Math.max(minCx, centerCx - ring); cx <= Math.min(maxCx, centerCx + ring); cx++) {
+                        boolean edge = cx == centerCx - ring || cx == centerCx + ring;
+                        long step = edge ? 1 : 2 * ring;
+                        for (long cy = centerCy - ring; cy <= centerCy + ring; cy += Math.max(1, step)) {
+                            if (cy < minCy || cy > maxCy) {
+                                continue;
+                            }
+                            Cell cell = cells.get(cellKey(cx, cy));
+                            if (cell != null) {
+                                collect(cell, x, y, latDegrees, radiusMeters, limit, heap);
+                            }
+                        }
+                    }
+                    if (heap.size() == limit && heap.peek().getDistance() <= ring * ringMeters) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Neighbor> result = new ArrayList<>(heap);
+        result.sort(Comparator.comparingDouble(Neighbor::getDistance));
+        return result;
+    }
+
+    private static void collect(Cell cell, double x, double y, double latDegrees, double radiusMeters,
+                                int limit, PriorityQueue<Neighbor> heap) {
+        for (int i = 0; i < cell.size; i++) {
+            if (Math.abs(cell.ys[i] - y) > latDegrees) {
+                continue;
+            }
+            double distance = distance(x, y, cell.xs[i], cell.ys[i]);
+            if (distance > radiusMeters) {
+                continue;
+            }
+            if (heap.size() < limit) {
+                heap.add(new Neighbor(cell.ids[i], distance));
+            } else if (distance < heap.peek().getDistance()) {
+                heap.poll();
+                heap.add(new Neighbor(cell.ids[i], distance));
+            }
+        }
+    }
+
+    /**
+     * Haversine distance in meters, as computed by Redis GEODIST.
+     * */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    private void removeFromCell(long id, Location location) {
+        Map<Long, Cell> cells = cellsByType.get(location.typeId);
+        long key = cellKey(location.x, location.y);
+        Cell cell = cells.get(key);
+        cell.remove(id);
+        if (cell.size == 0) {
+            cells.remove(key);
+            if (cells.isEmpty()) {
+                cellsByType.remove(location.typeId);
+            }
+        }
+    }
+
+    private long cellIndex(double degrees) {
+        return (long) Math.floor(degrees / cellDegrees);
+    }
+
+    private long cellKey(double x, double y) {
+        return cellKey(cellIndex(x), cellIndex(y));
+    }
+
+    private static long cellKey(long cx, long cy) {
+        return (cx << 32) | (cy & 0xffffffffL);
+    }
+
+    @Value
+    public static class Neighbor {
+        long id;
+        double distance;
+    }
+
+    private static class Location {
+        final long typeId;
+        final double x;
+        final double y;
+
+        Location(long typeId, double x, double y) {
+            this.typeId = typeId;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private static class Cell {
+        long[] ids = new long[INITIAL_CELL_CAPACITY];
+        double[] xs = new double[INITIAL_CELL_CAPACITY];
+        double[] ys = new double[INITIAL_CELL_CAPACITY];
+        int size;
+
+        void add(long id, double x, double y) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                xs = Arrays.copyOf(xs, size * 2);
+                ys = Arrays.copyOf(ys, size * 2);
+            }
+            ids[size] = id;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        void remove(long id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    // the order inside a cell does not matter, the last point fills the hole
+                    size--;
+                    ids[i] = ids[size];
+                    xs[i] = xs[size];
+                    ys[i] = ys[size];
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import lombok.Value;
+
+/**
+ * Finds hot keys with a count-min sketch over a sliding window and serves them from a short-TTL local cache.
+ * Every read is counted. A key whose estimate in the window reaches the threshold is promoted,
+ * and it is demoted once its estimate falls below half the threshold.
+ * Counts are halved at the end of each window, so the estimate tracks recent traffic.
+ * Cold keys always go to the loader, so only the few promoted keys can be stale, for at most the TTL.
+ *
+ * @author Ernie Lee
+ */
+public class HotKeyCache<K, V> {
+
+    private final CountMinSketch sketch;
+    private final long threshold;
+    private final long windowMillis;
+    private final int maxHotKeys;
+    private final LocalCache<K, V> cache;
+
+    private final Map<K, Entry> hotKeys = new ConcurrentHashMap<>();
+    private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+
+    public HotKeyCache(int sketchWidth, long threshold, long windowMillis, int maxHotKeys, long ttlMillis) {
+        this.sketch = new CountMinSketch(sketchWidth);
+        this.threshold = threshold;
+        this.windowMillis = windowMillis;
+        this.maxHotKeys = maxHotKeys;
+        this.cache = new LocalCache<>(maxHotKeys, ttlMillis);
+    }
+
+    public V get(K key, Supplier<V> loader) {
+        Entry entry = record(key);
+        if (entry == null) {
+            return loader.get();
+        }
+        CacheResult<V> result = cache.get(key);
+        if (result.isHit()) {
+            entry.hits.increment();
+            return result.getData();
+        }
+        V value = loader.get();
+        cache.put(key, value);
+        return value;
+    }
+
+    /**
+     * @return the entry of the key if it is hot
+     * */
+    private Entry record(K key) {
+        maybeDecay();
+        long estimate = sketch.add(key);
+        Entry entry = hotKeys.get(key);
+        if (entry == null) {
+            if (estimate < threshold || hotKeys.size() >= maxHotKeys) {
+                return null;
+            }
+            entry = hotKeys.computeIfAbsent(key, k -> new Entry());
+        }
+        entry.estimate = estimate;
+        return entry;
+    }
+
+    private void maybeDecay() {
+        long start = windowStart.get();
+        long now = System.currentTimeMillis();
+        if (now - start >= windowMillis && windowStart.compareAndSet(start, now)) {
+            decay();
+        }
+    }
+
+    void decay() {
+        sketch.halve();
+        hotKeys.entrySet().removeIf(e -> {
+            long estimate = sketch.estimate(e.getKey());
+            e.getValue().estimate = estimate;
+            if (estimate >= threshold / 2) {
+                return false;
+            }
+            cache.invalidate(e.getKey());
+            return true;
+        });
+    }
+
+    public void invalidate(K key) {
+        cache.invalidate(key);
+    }
+
+    public boolean isHot(K key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * @return hot keys by estimate, descending
+     * */
+    public List<HotKey<K>> hotKeys() {
+        List<HotKey<K>> result = new ArrayList<>(hotKeys.size());
+        hotKeys.forEach((key, entry) -> result.add(new HotKey<>(key, entry.estimate, entry.hits.sum(), entry.promotedAt)));
+        result.sort(Comparator.comparingLong((HotKey<K> hotKey) -> hotKey.getEstimate()).reversed());
+        return result;
+    }
+
+    @Value
+    public static class HotKey<K> {
+        K key;
+        long estimate;
+        long hits;
+        LocalDateTime promotedAt;
+    }
+
+    private static class Entry {
+        final LocalDateTime promotedAt = LocalDateTime.now();
+        final LongAdder hits = new LongAdder();
+        volatile long estimate;
+    }
+}
@@ -0,0 +1,54 @@
+package com.hmdp.utils;
+
+import org.springframework.util.DigestUtils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Immutable value serialized once to JSON, with a strong ETag over the serialized bytes,
+ * so a response can be written or answered 304 without touching Redis or Jackson.
+ * The ETag only depends on the bytes, so every node serving the same value hands out the same ETag.
+ *
+ * @author Ernie Lee
+ */
+public final class JsonSnapshot<T> {
+
+    private final long version;
+    private final T value;
+    private final byte[] body;
+    private final String etag;
+
+    private JsonSnapshot(long version, T value, byte[] body) {
+        this.version = version;
+        this.value = value;
+        this.body = body;
+        this.etag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+    }
+
+    /**
+     * @param value must not be modified afterwards, pass an unmodifiable view
+     * */
+    public static <T> JsonSnapshot<T> of(ObjectMapper objectMapper, long version, T value, Object response) throws JsonProcessingException {
+        return new JsonSnapshot<>(version, value, objectMapper.writeValueAsBytes(response));
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return the shared serialized response, callers write it out and never modify it
+     * */
+    public byte[] getBody() {
+        return body;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+}
@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+
+/**
+ * In-process L1 cache with a bounded size, LRU eviction and a TTL per entry.
+ * Null values are cached as hits, so a {@link CacheResult} is returned to tell them apart from misses.
+ *
+ * @author Ernie Lee
+ */
+public class LocalCache<K, V> {
+
+    private final LRUCache<K, CacheResult<V>> cache;
+
+    public LocalCache(int capacity, long ttlMillis) {
+        this.cache = CacheUtil.newLRUCache(capacity, ttlMillis);
+    }
+
+    public CacheResult<V> get(K key) {
+        CacheResult<V> result = cache.get(key, false);
+        if (result == null) {
+            return CacheResult.miss();
+        }
+        return result;
+    }
+
+    public void put(K key, V value) {
+        cache.put(key, CacheResult.hit(value));
+    }
+
+    public void invalidate(K key) {
+        cache.remove(key);
+    }
+
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+}
@@ -5,14 +5,27 @@ public class RedisConstants {
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shop-type";
+    public static final Long CACHE_SHOP_TYPE_TTL = 30L;
+    public static final String CACHE_SHOP_TYPE_PAGE_KEY = "cache:shop-type-page:";
+    public static final String CACHE_SHOP_VOUCHER_KEY = "cache:shop-voucher:";
+    public static final String CACHE_VERSION_KEY = "cache:version:";
+    public static final String CACHE_INVALIDATION_CHANNEL = "cache:invalidation:";
+    public static final String SHOP_ACCESS_KEY = "shop:access";
+    public static final Long SHOP_ACCESS_TTL = 24L;
 
     public static final String LOCK_SHOP_KEY = "shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_SHOP_CDC_KEY = "cdc:shop";
 
     public static final String GLOBAL_ID_INCREMENT_KEY = "id:increment:";
     public static final String LOCK_VOUCHER_ORDER_KEY = "lock:voucher_order:";
+    public static final String LOCK_SECKILL_RECONCILE_KEY = "seckill:reconcile";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_STOCK_SHARDS_KEY = "seckill:stock-shards:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_PENDING_KEY = "seckill:pending:";
+    public static final String SECKILL_HOLD_KEY = "seckill:hold:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
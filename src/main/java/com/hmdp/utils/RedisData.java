@@ -1,5 +1,7 @@
 package com.hmdp.utils;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import lombok.Data;
 
 import java.time.LocalDateTime;
@@ -8,4 +10,9 @@ import java.time.LocalDateTime;
 public class RedisData<T> {
     private LocalDateTime expireTime;
     private T data;
+    /**
+     * How long the last rebuild took, used by the probabilistic early refresh.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long rebuildCostMillis;
 }
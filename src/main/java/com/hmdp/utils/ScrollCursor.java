@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+/**
+ * Keyset cursor of the list endpoints, the sort values of the last returned row joined by '_', for example liked_id.
+ * Clients pass it back as is, an empty cursor asks for the first page.
+ *
+ * @author Ernie Lee
+ */
+public class ScrollCursor {
+
+    private static final String SEPARATOR = "_";
+
+    private ScrollCursor() {
+    }
+
+    public static String of(long... values) {
+        StringBuilder cursor = new StringBuilder();
+        for (long value : values) {
+            if (cursor.length() > 0) {
+                cursor.append(SEPARATOR);
+            }
+            cursor.append(value);
+        }
+        return cursor.toString();
+    }
+
+    /**
+     * @return the sort values, null for the first page
+     * @throws IllegalArgumentException if the cursor does not hold that many numbers
+     * */
+    public static long[] parse(String cursor, int length) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        String[] parts = cursor.split(SEPARATOR, -1);
+        if (parts.length != length) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        long[] values = new long[length];
+        for (int i = 0; i < length; i++) {
+            try {
+                values[i] = Long.parseLong(parts[i]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,419 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_HOLD_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_PENDING_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_SHARDS_KEY;
+
+/**
+ * Seckill stock of a voucher split across sub-counters, each with its own hash tag,
+ * so a flash sale of one voucher spreads over as many Redis slots as it has shards.
+ * <p>
+ * A user always starts at the home shard picked by the user id, whose set of users who ordered lives in the same slot
+ * and is checked and updated in the same script as the stock. When the home shard is empty the user is kept in that set
+ * while one unit is taken from another shard, so a second request of the same user still stops at the home shard,
+ * and is removed again if every shard is empty.
+ * <p>
+ * The order is queued by a separate XADD, as the stream lives in another slot than the shards. Each unit taken is recorded
+ * as a preorder with the order id in the slot of its shard, and each user held at home while other shards are tried as a hold,
+ * both removed once the order is queued. Those left by a node stopped in between are settled by {@link #reconcile}.
+ * The shard count of a voucher is fixed when the voucher is created.
+ * Vouchers created before the stock was sharded have no shard count and keep their stock and users
+ * in the unsuffixed {@code seckill:stock:<id>} and {@code seckill:order:<id>} keys, used as a single shard.
+ * <p>
+ * A voucher found sold out is flagged in memory and the flag is broadcast, so later requests on every node are refused
+ * without a Redis command. Adding stock back clears the flags. As the two broadcasts may cross, flagged vouchers
+ * are also checked against Redis periodically.
+ *
+ * @author Ernie Lee
+ */
+@Slf4j
+@Component
+public class SeckillStockShards {
+
+    public static final int NOT_FOUND = -1;
+    public static final int SOLD_OUT = -2;
+    public static final int ORDERED_ALREADY = -3;
+
+    /**
+     * Shard count of a voucher created before the stock was sharded
+     * */
+    private static final int LEGACY = 0;
+
+    /**
+     * Vouchers found without seckill stock are remembered briefly, so requests for unknown ids do not reach Redis every time
+     * */
+    private static final int UNKNOWN_CAPACITY = 10000;
+    private static final long UNKNOWN_TTL_MILLIS = 1000;
+
+    private static final String SOLD_OUT_NAME = "seckill-sold-out";
+    private static final String RESTOCK_NAME = "seckill-restock";
+
+    private static final DefaultRedisScript<Long> PREORDER_SCRIPT;
+    private static final DefaultRedisScript<Long> TAKE_STOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> CANCEL_SCRIPT;
+
+    static {
+        PREORDER_SCRIPT = new DefaultRedisScript<>();
+        PREORDER_SCRIPT.setLocation(new ClassPathResource("seckill_preorder_shard.lua"));
+        PREORDER_SCRIPT.setResultType(Long.class);
+        TAKE_STOCK_SCRIPT = new DefaultRedisScript<>();
+        TAKE_STOCK_SCRIPT.setLocation(new ClassPathResource("seckill_take_stock.lua"));
+        TAKE_STOCK_SCRIPT.setResultType(Long.class);
+        CANCEL_SCRIPT = new DefaultRedisScript<>();
+        CANCEL_SCRIPT.setLocation(new ClassPathResource("seckill_cancel.lua"));
+        CANCEL_SCRIPT.setResultType(Long.class);
+    }
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    @Autowired
+    CacheInvalidationBus cacheInvalidationBus;
+
+    private final Map<Long, Integer> shardCounts = new ConcurrentHashMap<>();
+    private final Set<Long> soldOut = ConcurrentHashMap.newKeySet();
+    private final LocalCache<Long, Boolean> unknownVouchers = new LocalCache<>(UNKNOWN_CAPACITY, UNKNOWN_TTL_MILLIS);
+
+    @PostConstruct
+    public void init() {
+        cacheInvalidationBus.subscribe(SOLD_OUT_NAME, ids -> ids.forEach(id -> soldOut.add(Long.valueOf(id))));
+        cacheInvalidationBus.subscribe(RESTOCK_NAME, ids -> ids.forEach(id -> soldOut.remove(Long.valueOf(id))));
+    }
+
+    /**
+     * Splits the stock evenly, the first shards take the remainder.
+     * @param shards capped by the stock, so no shard starts empty
+     * */
+    public void create(long voucherId, int stock, int shards) {
+        int shardCount = Math.max(1, Math.min(shards, stock));
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> redisOperations) throws DataAccessException {
+                RedisOperations<String, String> operations = (RedisOperations<String, String>) redisOperations;
+                for (int shard = 0; shard < shardCount; shard++) {
+                    int shardStock = stock / shardCount + (shard < stock % shardCount ? 1 : 0);
+                    operations.opsForValue().set(stockKey(voucherId, shard), Integer.toString(shardStock));
+                }
+                operations.opsForValue().set(SECKILL_STOCK_SHARDS_KEY + voucherId, Integer.toString(shardCount));
+                return null;
+            }
+        });
+        shardCounts.put(voucherId, shardCount);
+        unknownVouchers.invalidate(voucherId);
+        log.info("Split the stock {} of voucher {} into {} shards", stock, voucherId, shardCount);
+    }
+
+    /**
+     * Takes one unit of stock for the user, at most once per user, and records the preorder until {@link #confirm}.
+     * @param orderId of the order queued for the unit
+     * @return the shard the unit was taken from, or {@link #NOT_FOUND}, {@link #SOLD_OUT} or {@link #ORDERED_ALREADY}
+     * */
+    public int preorder(long voucherId, long userId, long orderId) {
+        if (soldOut.contains(voucherId)) {
+            return SOLD_OUT;
+        }
+        Integer shardCount = shardCount(voucherId);
+        if (shardCount == null) {
+            return NOT_FOUND;
+        }
+        int home = homeShard(userId, shardCount);
+        String user = Long.toString(userId);
+        String preorder = orderId + ":" + System.currentTimeMillis();
+        Long result = redisTemplate.execute(PREORDER_SCRIPT,
+                Arrays.asList(stockKey(voucherId, shardCount, home), orderKey(voucherId, shardCount, home),
+                        pendingKey(voucherId, shardCount, home), holdKey(voucherId, shardCount, home)),
+                user, shardCount > 1 ? "1" : "0", preorder);
+        if (result == null) {
+            throw new IllegalStateException("No result of the seckill preorder of voucher " + voucherId);
+        }
+        if (result != SOLD_OUT) {
+            return result == 0L ? home : result.intValue();
+        }
+        if (shardCount <= 1) {
+            markSoldOut(voucherId);
+            return SOLD_OUT;
+        }
+        // the user stays in the home set meanwhile, so a concurrent request of the same user is refused
+        for (int i = 1; i < shardCount; i++) {
+            int shard = (home + i) % shardCount;
+            Long taken = redisTemplate.execute(TAKE_STOCK_SCRIPT,
+                    Arrays.asList(stockKey(voucherId, shard), pendingKey(voucherId, shard)), user, preorder);
+            if (taken != null && taken == 0L) {
+                return shard;
+            }
+        }
+        redisTemplate.opsForSet().remove(orderKey(voucherId, home), user);
+        redisTemplate.opsForHash().delete(holdKey(voucherId, home), user);
+        markSoldOut(voucherId);
+        return SOLD_OUT;
+    }
+
+    /**
+     * Removes the preorder once its order is queued, the hold of the user first,
+     * so a hold left behind always has its preorder next to it if the order was queued.
+     * */
+    public void confirm(long voucherId, long userId, int shard) {
+        Integer shardCount = shardCount(voucherId);
+        if (shardCount == null) {
+            return;
+        }
+        int home = homeShard(userId, shardCount);
+        String user = Long.toString(userId);
+        if (shard != home) {
+            redisTemplate.opsForHash().delete(holdKey(voucherId, shardCount, home), user);
+        }
+        redisTemplate.opsForHash().delete(pendingKey(voucherId, shardCount, shard), user);
+    }
+
+    /**
+     * @return whether the voucher has seckill stock in Redis
+     * */
+    public boolean exists(long voucherId) {
+        return shardCount(voucherId) != null;
+    }
+
+    public boolean isSoldOut(long voucherId) {
+        return soldOut.contains(voucherId);
+    }
+
+    private void markSoldOut(long voucherId) {
+        if (soldOut.add(voucherId)) {
+            log.info("Voucher {} is sold out", voucherId);
+            cacheInvalidationBus.publish(SOLD_OUT_NAME, voucherId);
+        }
+    }
+
+    /**
+     * Adds stock back, spread over the shards like {@link #create(long, int, int)}, and clears the sold-out flags.
+     * @return false if the voucher has no seckill stock
+     * */
+    public boolean restock(long voucherId, int stock) {
+        Integer shardCount = shardCount(voucherId);
+        if (shardCount == null) {
+            return false;
+        }
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> redisOperations) throws DataAccessException {
+                RedisOperations<String, String> operations = (RedisOperations<String, String>) redisOperations;
+                int shards = Math.max(shardCount, 1);
+                for (int shard = 0; shard < shards; shard++) {
+                    int shardStock = stock / shards + (shard < stock % shards ? 1 : 0);
+                    if (shardStock > 0) {
+                        operations.opsForValue().increment(stockKey(voucherId, shardCount, shard), shardStock);
+                    }
+                }
+                return null;
+            }
+        });
+        clearSoldOut(voucherId);
+        return true;
+    }
+
+    private void clearSoldOut(long voucherId) {
+        soldOut.remove(voucherId);
+        cacheInvalidationBus.publish(RESTOCK_NAME, voucherId);
+    }
+
+    /**
+     * Clears the flags of vouchers that have stock again, in case a restock was received before the sold-out flag.
+     * */
+    @Scheduled(fixedDelayString = "${seckill.sold-out.check.interval.millis:5000}")
+    public void checkSoldOut() {
+        for (Long voucherId : new ArrayList<>(soldOut)) {
+            try {
+                Integer shardCount = shardCount(voucherId);
+                if (shardCount == null) {
+                    continue;
+                }
+                List<String> keys = new ArrayList<>();
+                for (int shard = 0; shard < Math.max(shardCount, 1); shard++) {
+                    keys.add(stockKey(voucherId, shardCount, shard));
+                }
+                List<Object> stocks = redisTemplate.executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public <K, V> Object execute(RedisOperations<K, V> redisOperations) throws DataAccessException {
+                        RedisOperations<String, String> operations = (RedisOperations<String, String>) redisOperations;
+                        keys.forEach(key -> operations.opsForValue().get(key));
+                        return null;
+                    }
+                });
+                if (stocks != null && stocks.stream().anyMatch(stock -> stock != null && Long.parseLong(stock.toString()) > 0)) {
+                    soldOut.remove(voucherId);
+                    log.info("Voucher {} has stock again", voucherId);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Failed to check the stock of sold out voucher {}", voucherId, e);
+            }
+        }
+    }
+
+    /**
+     * Gives back the unit taken by {@link #preorder(long, long, long)} when the order could not be queued,
+     * unless its preorder was settled already.
+     * */
+    public void cancel(long voucherId, long userId, int shard) {
+        Integer shardCount = shardCount(voucherId);
+        if (shardCount == null) {
+            return;
+        }
+        int home = homeShard(userId, shardCount);
+        String user = Long.toString(userId);
+        Long result;
+        if (shard == home) {
+            result = redisTemplate.execute(CANCEL_SCRIPT, Arrays.asList(stockKey(voucherId, shardCount, shard),
+                    pendingKey(voucherId, shardCount, shard), orderKey(voucherId, shardCount, home)), user);
+        } else {
+            // the hold keeps the user until released, so a stop in between is settled by the reconciliation
+            result = redisTemplate.execute(CANCEL_SCRIPT, Arrays.asList(stockKey(voucherId, shard), pendingKey(voucherId, shard)), user);
+            if (result != null && result == 0L) {
+                redisTemplate.opsForSet().remove(orderKey(voucherId, home), user);
+                redisTemplate.opsForHash().delete(holdKey(voucherId, home), user);
+            }
+        }
+        if (result != null && result == 0L) {
+            clearSoldOut(voucherId);
+        }
+    }
+
+    /**
+     * Settles the preorders and holds older than staleBeforeMillis, left by a node stopped between the preorder and the XADD
+     * or before the confirm. A preorder takes a unit of stock, so its order is queued again unless it is in MySQL already:
+     * a record still in the stream cannot be told apart from a lost one, and the unique key on user and voucher
+     * makes the second record a no-op. A hold without a preorder took no stock, its user is released.
+     * @param ordered whether a user has an order of the voucher in MySQL
+     * @param requeue queues the order of a user again, with the order id of the preorder
+     * @return number of preorders and holds settled
+     * */
+    public int reconcile(long voucherId, long staleBeforeMillis, Predicate<Long> ordered, BiConsumer<Long, Long> requeue) {
+        Integer shardCount = shardCount(voucherId);
+        if (shardCount == null) {
+            return 0;
+        }
+        int shards = Math.max(shardCount, 1);
+        List<Map<Object, Object>> preorders = new ArrayList<>(shards);
+        Set<Object> preordered = new HashSet<>();
+        for (int shard = 0; shard < shards; shard++) {
+            Map<Object, Object> entries = redisTemplate.opsForHash().entries(pendingKey(voucherId, shardCount, shard));
+            preorders.add(entries);
+            preordered.addAll(entries.keySet());
+        }
+        int settled = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            for (Map.Entry<Object, Object> entry : preorders.get(shard).entrySet()) {
+                String[] preorder = entry.getValue().toString().split(":");
+                if (Long.parseLong(preorder[1]) >= staleBeforeMillis) {
+                    continue;
+                }
+                long userId = Long.parseLong(entry.getKey().toString());
+                if (!ordered.test(userId)) {
+                    requeue.accept(userId, Long.valueOf(preorder[0]));
+                    log.warn("Queued the order {} of user {} for voucher {} again, left after its preorder", preorder[0], userId, voucherId);
+                }
+                redisTemplate.opsForHash().delete(pendingKey(voucherId, shardCount, shard), entry.getKey());
+                settled++;
+            }
+        }
+        for (int shard = 0; shard < shards; shard++) {
+            Map<Object, Object> holds = redisTemplate.opsForHash().entries(holdKey(voucherId, shardCount, shard));
+            for (Map.Entry<Object, Object> entry : holds.entrySet()) {
+                if (Long.parseLong(entry.getValue().toString().split(":")[1]) >= staleBeforeMillis) {
+                    continue;
+                }
+                long userId = Long.parseLong(entry.getKey().toString());
+                if (!preordered.contains(entry.getKey()) && !ordered.test(userId)) {
+                    redisTemplate.opsForSet().remove(orderKey(voucherId, shardCount, shard), entry.getKey());
+                    log.warn("Released user {} of voucher {}, held without a unit of stock", userId, voucherId);
+                }
+                redisTemplate.opsForHash().delete(holdKey(voucherId, shardCount, shard), entry.getKey());
+                settled++;
+            }
+        }
+        return settled;
+    }
+
+    /**
+     * @return null if the voucher has no seckill stock, {@link #LEGACY} if it was created before the stock was sharded
+     * */
+    private Integer shardCount(long voucherId) {
+        if (unknownVouchers.get(voucherId).isHit()) {
+            return null;
+        }
+        Integer shardCount = shardCounts.computeIfAbsent(voucherId, id -> {
+            String count = redisTemplate.opsForValue().get(SECKILL_STOCK_SHARDS_KEY + id);
+            if (count != null) {
+                return Integer.valueOf(count);
+            }
+            return Boolean.TRUE.equals(redisTemplate.hasKey(SECKILL_STOCK_KEY + id)) ? LEGACY : null;
+        });
+        if (shardCount == null) {
+            unknownVouchers.put(voucherId, Boolean.TRUE);
+        }
+        return shardCount;
+    }
+
+    private static int homeShard(long userId, int shardCount) {
+        return (int) Math.floorMod(userId, (long) Math.max(shardCount, 1));
+    }
+
+    private static String stockKey(long voucherId, int shardCount, int shard) {
+        return shardCount == LEGACY ? SECKILL_STOCK_KEY + voucherId : stockKey(voucherId, shard);
+    }
+
+    private static String orderKey(long voucherId, int shardCount, int shard) {
+        return shardCount == LEGACY ? SECKILL_ORDER_KEY + voucherId : orderKey(voucherId, shard);
+    }
+
+    private static String pendingKey(long voucherId, int shardCount, int shard) {
+        return shardCount == LEGACY ? SECKILL_PENDING_KEY + voucherId : pendingKey(voucherId, shard);
+    }
+
+    private static String holdKey(long voucherId, int shardCount, int shard) {
+        return shardCount == LEGACY ? SECKILL_HOLD_KEY + voucherId : holdKey(voucherId, shard);
+    }
+
+    static String stockKey(long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    static String orderKey(long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    static String pendingKey(long voucherId, int shard) {
+        return SECKILL_PENDING_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    static String holdKey(long voucherId, int shard) {
+        return SECKILL_HOLD_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+}
@@ -0,0 +1,86 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+import static com.hmdp.utils.RedisConstants.SHOP_ACCESS_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_ACCESS_TTL;
+
+/**
+ * Counts shop reads in memory and periodically merges the counts into a sorted set shared by all nodes,
+ * trimmed to the most requested ids. The cache warm-up reads it back to pick the hot set after a restart.
+ *
+ * @author Ernie Lee
+ */
+@Slf4j
+@Component
+public class ShopAccessLog {
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    @Value("${cache.shop.access.log.max.size:10000}")
+    int maxSize;
+
+    private volatile Map<Long, LongAdder> counts = new ConcurrentHashMap<>();
+
+    public void record(Long id) {
+        counts.computeIfAbsent(id, k -> new LongAdder()).increment();
+    }
+
+    @Scheduled(fixedDelayString = "${cache.shop.access.log.flush.interval.millis:10000}")
+    public void flush() {
+        Map<Long, LongAdder> snapshot = counts;
+        if (snapshot.isEmpty()) {
+            return;
+        }
+        counts = new ConcurrentHashMap<>();
+
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> redisOperations) throws DataAccessException {
+                RedisOperations<String, String> operations = (RedisOperations<String, String>) redisOperations;
+                for (Map.Entry<Long, LongAdder> entry : snapshot.entrySet()) {
+                    operations.opsForZSet().incrementScore(SHOP_ACCESS_KEY, entry.getKey().toString(), entry.getValue().sum());
+                }
+                operations.opsForZSet().removeRange(SHOP_ACCESS_KEY, 0, -(maxSize + 1));
+                operations.expire(SHOP_ACCESS_KEY, SHOP_ACCESS_TTL, TimeUnit.HOURS);
+                return null;
+            }
+        });
+        log.debug("Flushed access counts of {} shops", snapshot.size());
+    }
+
+    /**
+     * @return the most requested shop ids, most requested first
+     * */
+    public List<Long> topIds(int limit) {
+        Set<String> members = redisTemplate.opsForZSet().reverseRange(SHOP_ACCESS_KEY, 0, limit - 1);
+        if (members == null || members.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(members.size());
+        for (String member : members) {
+            ids.add(Long.valueOf(member));
+        }
+        return ids;
+    }
+}
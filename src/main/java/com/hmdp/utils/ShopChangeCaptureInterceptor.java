@@ -0,0 +1,99 @@
+package com.hmdp.utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+
+import com.baomidou.mybatisplus.core.toolkit.Constants;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopChangeLog;
+import com.hmdp.mapper.ShopChangeLogMapper;
+import com.hmdp.mapper.ShopMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Appends a row to tb_shop_change_log for every tb_shop write made through {@link ShopMapper},
+ * on the same executor, so the row commits or rolls back with the write.
+ * Writes by wrapper have no ids to log and are only reported, they and writes outside the application need the triggers.
+ *
+ * @author Ernie Lee
+ */
+@Slf4j
+@Intercepts(@Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}))
+public class ShopChangeCaptureInterceptor implements Interceptor {
+
+    private static final String SHOP_MAPPER = ShopMapper.class.getName() + ".";
+    private static final String CHANGE_LOG_INSERT = ShopChangeLogMapper.class.getName() + ".insert";
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Object result = invocation.proceed();
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        if (!ms.getId().startsWith(SHOP_MAPPER) || !(result instanceof Integer) || (Integer) result == 0) {
+            return result;
+        }
+
+        String method = ms.getId().substring(SHOP_MAPPER.length());
+        Object parameter = invocation.getArgs()[1];
+        String op = op(method);
+        List<Long> shopIds = shopIds(method, parameter);
+        if (op == null || shopIds.isEmpty()) {
+            log.warn("Shop write {} is not captured, its ids are unknown", ms.getId());
+            return result;
+        }
+
+        Executor executor = (Executor) invocation.getTarget();
+        MappedStatement insert = ms.getConfiguration().getMappedStatement(CHANGE_LOG_INSERT);
+        for (Long shopId : shopIds) {
+            executor.update(insert, new ShopChangeLog().setShopId(shopId).setOp(op));
+        }
+        return result;
+    }
+
+    private static String op(String method) {
+        if (method.startsWith("insert")) {
+            return ShopChangeLog.OP_INSERT;
+        }
+        if (method.startsWith("update")) {
+            return ShopChangeLog.OP_UPDATE;
+        }
+        if (method.startsWith("delete")) {
+            return ShopChangeLog.OP_DELETE;
+        }
+        return null;
+    }
+
+    private static List<Long> shopIds(String method, Object parameter) {
+        switch (method) {
+            case "insert":
+                return Collections.singletonList(((Shop) parameter).getId());
+            case "updateById":
+                return Collections.singletonList(((Shop) ((Map<?, ?>) parameter).get(Constants.ENTITY)).getId());
+            case "deleteById":
+                return Collections.singletonList(toLong((Serializable) parameter));
+            case "deleteBatchIds":
+                List<Long> ids = new ArrayList<>();
+                for (Object id : (Collection<?>) ((Map<?, ?>) parameter).get(Constants.COLLECTION)) {
+                    ids.add(toLong((Serializable) id));
+                }
+                return ids;
+            default:
+                return Collections.emptyList();
+        }
+    }
+
+    private static Long toLong(Serializable id) {
+        return id instanceof Number ? ((Number) id).longValue() : Long.valueOf(id.toString());
+    }
+}
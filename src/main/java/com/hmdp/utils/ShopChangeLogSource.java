@@ -0,0 +1,21 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+import com.hmdp.entity.ShopChangeLog;
+
+/**
+ * Where {@link ShopChangeLogTailer} reads the shop changes from, the change log table in production.
+ *
+ * @author Ernie Lee
+ */
+public interface ShopChangeLogSource {
+
+    /**
+     * @param settleMillis only changes at least this old, so a transaction that took a lower id but commits later is not skipped
+     * @return the oldest changes, by id
+     * */
+    List<ShopChangeLog> fetchOldest(int limit, long settleMillis);
+
+    void remove(List<Long> changeIds);
+}
@@ -0,0 +1,93 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.hmdp.entity.ShopChangeLog;
+import com.hmdp.service.IShopService;
+
+import lombok.extern.slf4j.Slf4j;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_CDC_KEY;
+
+/**
+ * Tails the shop change log and refreshes the changed shops in Redis and L1, instead of waiting for a miss.
+ * Changes are applied in id order, a batch at a time: the shop ids of a batch are deduplicated and reloaded in one query,
+ * written back in one pipeline, and the batch is removed from the log only then, so a failed batch is retried.
+ * One node tails at a time, under a distributed lock.
+ *
+ * @author Ernie Lee
+ */
+@Slf4j
+@Component
+public class ShopChangeLogTailer {
+
+    @Autowired
+    ShopChangeLogSource changeLogSource;
+
+    @Autowired
+    IShopService shopService;
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    @Value("${cache.shop.cdc.enabled:true}")
+    boolean enabled;
+
+    @Value("${cache.shop.cdc.batch.size:500}")
+    int batchSize;
+
+    @Value("${cache.shop.cdc.settle.millis:1000}")
+    long settleMillis;
+
+    @Value("${cache.shop.cdc.lock.ttl.seconds:30}")
+    long lockTtlSeconds;
+
+    @Scheduled(fixedDelayString = "${cache.shop.cdc.poll.interval.millis:500}")
+    public void poll() {
+        if (!enabled) {
+            return;
+        }
+        Lock lock = new SimpleRedisLock(LOCK_SHOP_CDC_KEY, redisTemplate);
+        if (!lock.tryLock(lockTtlSeconds)) {
+            return;
+        }
+        try {
+            while (applyBatch() == batchSize) {
+                // the log is behind, keep draining
+            }
+        } catch (Exception e) {
+            log.error("Failed to apply shop changes, they are retried on the next poll", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of changes applied
+     * */
+    int applyBatch() {
+        List<ShopChangeLog> changes = changeLogSource.fetchOldest(batchSize, settleMillis);
+        if (changes.isEmpty()) {
+            return 0;
+        }
+        Set<Long> shopIds = new LinkedHashSet<>();
+        List<Long> changeIds = new ArrayList<>(changes.size());
+        for (ShopChangeLog change : changes) {
+            shopIds.add(change.getShopId());
+            changeIds.add(change.getId());
+        }
+        shopService.refreshCache(shopIds);
+        changeLogSource.remove(changeIds);
+        log.debug("Applied {} shop changes to {} shops", changes.size(), shopIds.size());
+        return changes.size();
+    }
+}
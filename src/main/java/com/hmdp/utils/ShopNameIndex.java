@@ -0,0 +1,334 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.hmdp.utils.codec.BinaryReader;
+import com.hmdp.utils.codec.BinaryWriter;
+
+import lombok.Value;
+
+/**
+ * In-process inverted index over the name and the area of shops, for substring search without a table scan.
+ * Text is lowercased without whitespace and split into code point unigrams and bigrams, so CJK names need no dictionary.
+ * A query of two or more characters intersects the postings of its bigrams, a single character uses its unigram,
+ * then the candidates are checked for the real substring, as bigrams may match out of order.
+ * Results rank a name prefix before a name substring before an area substring, then shorter names first.
+ * <p>
+ * Every version of a shop gets a new document number, so postings only ever grow at the end and are kept
+ * as delta varints. The previous document of an updated shop is marked deleted, and all postings are rebuilt
+ * when deleted documents outnumber the live ones.
+ *
+ * @author Ernie Lee
+ */
+public class ShopNameIndex {
+
+    private static final int NAME_PREFIX_SCORE = 3;
+    private static final int NAME_SCORE = 2;
+    private static final int AREA_SCORE = 1;
+    private static final int MIN_COMPACT_DELETED = 1024;
+
+    private static final Comparator<Match> RANK = Comparator.comparingInt((Match match) -> -match.score)
+            .thenComparingInt(match -> match.nameLength)
+            .thenComparingLong(match -> match.shopId);
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Long, Integer> docByShopId = new HashMap<>();
+    private long[] shopIds = new long[1024];
+    private String[] names = new String[1024];
+    private String[] areas = new String[1024];
+    private final BitSet deleted = new BitSet();
+    private int docCount;
+    private int deletedCount;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Indexes the shop, replacing its previous name and area.
+     * */
+    public void put(long shopId, String name, String area) {
+        String normalizedName = normalize(name);
+        String normalizedArea = normalize(area);
+        lock.writeLock().lock();
+        try {
+            deleteDoc(shopId);
+            addDoc(shopId, normalizedName, normalizedArea);
+            if (deletedCount >= MIN_COMPACT_DELETED && deletedCount > docCount - deletedCount) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long shopId) {
+        lock.writeLock().lock();
+        try {
+            deleteDoc(shopId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docByShopId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the page of matching shop ids in rank order and the total number of matches
+     * */
+    public SearchResult search(String query, int offset, int limit) {
+        List<Match> matches = matches(query);
+        return page(matches, Math.min(offset, matches.size()), limit);
+    }
+
+    /**
+     * @param cursor of the previous page, {@link SearchResult#getCursor()}, blank for the first page
+     * @return the page of matching shop ids ranked after the cursor, a shop changed meanwhile may move across it
+     * @throws IllegalArgumentException if the cursor is malformed
+     * */
+    public SearchResult searchAfter(String query, String cursor, int limit) {
+        long[] after = ScrollCursor.parse(cursor, 3);
+        List<Match> matches = matches(query);
+        int from = 0;
+        if (after != null) {
+            Match last = new Match(after[2], (int) after[0], (int) after[1]);
+            while (from < matches.size() && RANK.compare(matches.get(from), last) <= 0) {
+                from++;
+            }
+        }
+        return page(matches, from, limit);
+    }
+
+    private static SearchResult page(List<Match> matches, int from, int limit) {
+        int to = Math.min(matches.size(), from + limit);
+        List<Long> page = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            page.add(matches.get(i).shopId);
+        }
+        String cursor = null;
+        if (to < matches.size()) {
+            Match last = matches.get(to - 1);
+            cursor = ScrollCursor.of(last.score, last.nameLength, last.shopId);
+        }
+        return new SearchResult(page, matches.size(), cursor);
+    }
+
+    private List<Match> matches(String query) {
+        String text = normalize(query);
+        if (text.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Match> matches = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            int[] candidates = candidates(text);
+            for (int doc : candidates) {
+                if (deleted.get(doc)) {
+                    continue;
+                }
+                int score = score(names[doc], areas[doc], text);
+                if (score > 0) {
+                    matches.add(new Match(shopIds[doc], score, names[doc].length()));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        matches.sort(RANK);
+        return matches;
+    }
+
+    private int[] candidates(String text) {
+        int[] codePoints = text.codePoints().toArray();
+        if (codePoints.length == 1) {
+            Postings unigram = postings.get(text);
+            return unigram == null ? new int[0] : unigram.decode();
+        }
+        // the rarest bigram first keeps the intersection small
+        List<Postings> lists = new ArrayList<>();
+        for (String term : bigrams(codePoints)) {
+            Postings list = postings.get(term);
+            if (list == null) {
+                return new int[0];
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.count));
+        int[] result = lists.get(0).decode();
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            result = intersect(result, lists.get(i).decode());
+        }
+        return result;
+    }
+
+    private static int score(String name, String area, String text) {
+        if (name.startsWith(text)) {
+            return NAME_PREFIX_SCORE;
+        }
+        if (name.contains(text)) {
+            return NAME_SCORE;
+        }
+        return area.contains(text) ? AREA_SCORE : 0;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private void addDoc(long shopId, String name, String area) {
+        if (docCount == shopIds.length) {
+            shopIds = Arrays.copyOf(shopIds, docCount * 2);
+            names = Arrays.copyOf(names, docCount * 2);
+            areas = Arrays.copyOf(areas, docCount * 2);
+        }
+        int doc = docCount++;
+        shopIds[doc] = shopId;
+        names[doc] = name;
+        areas[doc] = area;
+        docByShopId.put(shopId, doc);
+        for (String term : terms(name, area)) {
+            postings.computeIfAbsent(term, t -> new Postings()).add(doc);
+        }
+    }
+
+    private void deleteDoc(long shopId) {
+        Integer doc = docByShopId.remove(shopId);
+        if (doc != null) {
+            deleted.set(doc);
+            names[doc] = null;
+            areas[doc] = null;
+            deletedCount++;
+        }
+    }
+
+    private void compact() {
+        long[] oldShopIds = shopIds;
+        String[] oldNames = names;
+        String[] oldAreas = areas;
+        int oldDocCount = docCount;
+        BitSet oldDeleted = (BitSet) deleted.clone();
+
+        postings.clear();
+        docByShopId.clear();
+        deleted.clear();
+        int capacity = Math.max(1024, Integer.highestOneBit(Math.max(1, oldDocCount - deletedCount)) * 2);
+        shopIds = new long[capacity];
+        names = new String[capacity];
+        areas = new String[capacity];
+        docCount = 0;
+        deletedCount = 0;
+        for (int doc = 0; doc < oldDocCount; doc++) {
+            if (!oldDeleted.get(doc)) {
+                addDoc(oldShopIds[doc], oldNames[doc], oldAreas[doc]);
+            }
+        }
+    }
+
+    private static Set<String> terms(String name, String area) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String text : new String[]{name, area}) {
+            int[] codePoints = text.codePoints().toArray();
+            for (int i = 0; i < codePoints.length; i++) {
+                terms.add(new String(codePoints, i, 1));
+            }
+            terms.addAll(bigrams(codePoints));
+        }
+        return terms;
+    }
+
+    private static Set<String> bigrams(int[] codePoints) {
+        Set<String> bigrams = new LinkedHashSet<>();
+        for (int i = 0; i + 1 < codePoints.length; i++) {
+            bigrams.add(new String(codePoints, i, 2));
+        }
+        return bigrams;
+    }
+
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(text.length());
+        text.toLowerCase(Locale.ROOT).codePoints()
+                .filter(codePoint -> !Character.isWhitespace(codePoint))
+                .forEach(normalized::appendCodePoint);
+        return normalized.toString();
+    }
+
+    @Value
+    public static class SearchResult {
+        List<Long> shopIds;
+        int total;
+        /**
+         * Rank of the last shop of the page, null on the last page.
+         * */
+        String cursor;
+    }
+
+    private static class Match {
+        final long shopId;
+        final int score;
+        final int nameLength;
+
+        Match(long shopId, int score, int nameLength) {
+            this.shopId = shopId;
+            this.score = score;
+            this.nameLength = nameLength;
+        }
+    }
+
+    /**
+     * Ascending document numbers as varint deltas.
+     * */
+    private static class Postings {
+        final BinaryWriter writer = new BinaryWriter(4);
+        int lastDoc = -1;
+        int count;
+
+        void add(int doc) {
+            writer.writeVarLong(doc - lastDoc);
+            lastDoc = doc;
+            count++;
+        }
+
+        int[] decode() {
+            int[] docs = new int[count];
+            BinaryReader reader = writer.reader();
+            int doc = -1;
+            for (int i = 0; i < count; i++) {
+                doc += (int) reader.readVarLong();
+                docs[i] = doc;
+            }
+            return docs;
+        }
+    }
+}
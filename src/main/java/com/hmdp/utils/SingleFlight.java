@@ -0,0 +1,80 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Collapses concurrent loads of the same key in this JVM into one call.
+ * The first caller runs the loader, the others wait on its future and get the same result or exception.
+ * A follower waits at most the wait timeout, then runs the loader itself, so a hung leader does not block every caller of the key.
+ *
+ * @author Ernie Lee
+ */
+@Slf4j
+public class SingleFlight<K, V> {
+
+    public static final long DEFAULT_WAIT_MILLIS = 3000;
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+    private final long waitMillis;
+
+    public SingleFlight() {
+        this(DEFAULT_WAIT_MILLIS);
+    }
+
+    /**
+     * @param waitMillis how long a follower waits for the leader before loading on its own
+     * */
+    public SingleFlight(long waitMillis) {
+        this.waitMillis = waitMillis;
+    }
+
+    public V execute(K key, Supplier<V> loader) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = calls.putIfAbsent(key, future);
+        if (inFlight != null) {
+            return await(key, inFlight, loader);
+        }
+        try {
+            V value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    public int inFlightCount() {
+        return calls.size();
+    }
+
+    private V await(K key, CompletableFuture<V> future, Supplier<V> loader) {
+        try {
+            return future.get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Load of {} still running after {} ms, loading it directly", key, waitMillis);
+            return loader.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the load of " + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
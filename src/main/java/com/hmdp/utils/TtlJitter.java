@@ -0,0 +1,26 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Spreads the expiry of keys written together, so they do not all miss in the same second.
+ *
+ * @author Ernie Lee
+ */
+public class TtlJitter {
+
+    private TtlJitter() {
+    }
+
+    /**
+     * @param ratio of the ttl added at most, 0 for none
+     * @return the ttl extended by a uniformly random part of up to ratio * ttl
+     * */
+    public static long apply(long ttl, double ratio) {
+        long spread = (long) (ttl * ratio);
+        if (spread <= 0) {
+            return ttl;
+        }
+        return ttl + ThreadLocalRandom.current().nextLong(spread + 1);
+    }
+}
@@ -0,0 +1,19 @@
+package com.hmdp.utils.codec;
+
+/**
+ * Converts cached values to and from the bytes stored in Redis.
+ * An empty byte array is reserved for the cached null value and never passed to a codec.
+ *
+ * @author Ernie Lee
+ */
+public interface CacheCodec<T> {
+
+    /**
+     * First byte of the binary format, JSON payloads always start with '{'.
+     * */
+    byte FORMAT_BINARY_V1 = 1;
+
+    byte[] encode(T value);
+
+    T decode(byte[] bytes);
+}
@@ -0,0 +1,45 @@
+package com.hmdp.utils.codec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * @author Ernie Lee
+ */
+public class JsonCacheCodec<T> implements CacheCodec<T> {
+
+    private final ObjectMapper objectMapper;
+    private final JavaType type;
+
+    public JsonCacheCodec(ObjectMapper objectMapper, Class<T> type) {
+        this.objectMapper = objectMapper;
+        this.type = objectMapper.constructType(type);
+    }
+
+    public JsonCacheCodec(ObjectMapper objectMapper, TypeReference<T> type) {
+        this.objectMapper = objectMapper;
+        this.type = objectMapper.getTypeFactory().constructType(type);
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        try {
+            return objectMapper.readValue(bytes, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
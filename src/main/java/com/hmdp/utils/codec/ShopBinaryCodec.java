@@ -0,0 +1,84 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.entity.Shop;
+
+/**
+ * Binary layout of a cached shop:
+ * version byte, a varint bitmask of the non-null fields, then the present fields in declaration order.
+ * Integers are varints, strings are length-prefixed UTF-8, times are epoch seconds plus nanos.
+ * The transient distance is not cached.
+ *
+ * @author Ernie Lee
+ */
+public class ShopBinaryCodec implements CacheCodec<Shop> {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    @Override
+    public byte[] encode(Shop shop) {
+        BinaryWriter writer = new BinaryWriter(INITIAL_CAPACITY);
+        writer.writeByte(FORMAT_BINARY_V1);
+        writeShop(writer, shop);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public Shop decode(byte[] bytes) {
+        BinaryReader reader = new BinaryReader(bytes);
+        int version = reader.readByte();
+        if (version != FORMAT_BINARY_V1) {
+            throw new IllegalArgumentException("Unsupported shop format version: " + version);
+        }
+        return readShop(reader);
+    }
+
+    static void writeShop(BinaryWriter writer, Shop shop) {
+        long presence = bit(shop.getId(), 0) | bit(shop.getName(), 1) | bit(shop.getTypeId(), 2)
+                | bit(shop.getImages(), 3) | bit(shop.getArea(), 4) | bit(shop.getAddress(), 5)
+                | bit(shop.getX(), 6) | bit(shop.getY(), 7) | bit(shop.getAvgPrice(), 8)
+                | bit(shop.getSold(), 9) | bit(shop.getComments(), 10) | bit(shop.getScore(), 11)
+                | bit(shop.getOpenHours(), 12) | bit(shop.getCreateTime(), 13) | bit(shop.getUpdateTime(), 14);
+        writer.writeVarLong(presence);
+
+        if (shop.getId() != null) writer.writeVarLong(shop.getId());
+        if (shop.getName() != null) writer.writeString(shop.getName());
+        if (shop.getTypeId() != null) writer.writeVarLong(shop.getTypeId());
+        if (shop.getImages() != null) writer.writeString(shop.getImages());
+        if (shop.getArea() != null) writer.writeString(shop.getArea());
+        if (shop.getAddress() != null) writer.writeString(shop.getAddress());
+        if (shop.getX() != null) writer.writeDouble(shop.getX());
+        if (shop.getY() != null) writer.writeDouble(shop.getY());
+        if (shop.getAvgPrice() != null) writer.writeSignedVarLong(shop.getAvgPrice());
+        if (shop.getSold() != null) writer.writeSignedVarLong(shop.getSold());
+        if (shop.getComments() != null) writer.writeSignedVarLong(shop.getComments());
+        if (shop.getScore() != null) writer.writeSignedVarLong(shop.getScore());
+        if (shop.getOpenHours() != null) writer.writeString(shop.getOpenHours());
+        if (shop.getCreateTime() != null) writer.writeDateTime(shop.getCreateTime());
+        if (shop.getUpdateTime() != null) writer.writeDateTime(shop.getUpdateTime());
+    }
+
+    private static long bit(Object field, int index) {
+        return field == null ? 0 : 1L << index;
+    }
+
+    static Shop readShop(BinaryReader reader) {
+        long presence = reader.readVarLong();
+        Shop shop = new Shop();
+        if ((presence & 1L) != 0) shop.setId(reader.readVarLong());
+        if ((presence & 1L << 1) != 0) shop.setName(reader.readString());
+        if ((presence & 1L << 2) != 0) shop.setTypeId(reader.readVarLong());
+        if ((presence & 1L << 3) != 0) shop.setImages(reader.readString());
+        if ((presence & 1L << 4) != 0) shop.setArea(reader.readString());
+        if ((presence & 1L << 5) != 0) shop.setAddress(reader.readString());
+        if ((presence & 1L << 6) != 0) shop.setX(reader.readDouble());
+        if ((presence & 1L << 7) != 0) shop.setY(reader.readDouble());
+        if ((presence & 1L << 8) != 0) shop.setAvgPrice(reader.readSignedVarLong());
+        if ((presence & 1L << 9) != 0) shop.setSold((int) reader.readSignedVarLong());
+        if ((presence & 1L << 10) != 0) shop.setComments((int) reader.readSignedVarLong());
+        if ((presence & 1L << 11) != 0) shop.setScore((int) reader.readSignedVarLong());
+        if ((presence & 1L << 12) != 0) shop.setOpenHours(reader.readString());
+        if ((presence & 1L << 13) != 0) shop.setCreateTime(reader.readDateTime());
+        if ((presence & 1L << 14) != 0) shop.setUpdateTime(reader.readDateTime());
+        return shop;
+    }
+}
@@ -0,0 +1,47 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.RedisData;
+
+/**
+ * Binary layout of a logically expiring shop:
+ * version byte, a flag byte for the optional rebuild cost, the expire time, the rebuild cost if present,
+ * then the shop body as in {@link ShopBinaryCodec}.
+ *
+ * @author Ernie Lee
+ */
+public class ShopDataBinaryCodec implements CacheCodec<RedisData<Shop>> {
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int FLAG_REBUILD_COST = 1;
+
+    @Override
+    public byte[] encode(RedisData<Shop> data) {
+        BinaryWriter writer = new BinaryWriter(INITIAL_CAPACITY);
+        writer.writeByte(FORMAT_BINARY_V1);
+        writer.writeByte(data.getRebuildCostMillis() == null ? 0 : FLAG_REBUILD_COST);
+        writer.writeDateTime(data.getExpireTime());
+        if (data.getRebuildCostMillis() != null) {
+            writer.writeVarLong(data.getRebuildCostMillis());
+        }
+        ShopBinaryCodec.writeShop(writer, data.getData());
+        return writer.toByteArray();
+    }
+
+    @Override
+    public RedisData<Shop> decode(byte[] bytes) {
+        BinaryReader reader = new BinaryReader(bytes);
+        int version = reader.readByte();
+        if (version != FORMAT_BINARY_V1) {
+            throw new IllegalArgumentException("Unsupported shop data format version: " + version);
+        }
+        int flags = reader.readByte();
+        RedisData<Shop> data = new RedisData<>();
+        data.setExpireTime(reader.readDateTime());
+        if ((flags & FLAG_REBUILD_COST) != 0) {
+            data.setRebuildCostMillis(reader.readVarLong());
+        }
+        data.setData(ShopBinaryCodec.readShop(reader));
+        return data;
+    }
+}
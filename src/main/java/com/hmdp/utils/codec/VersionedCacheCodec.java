@@ -0,0 +1,32 @@
+package com.hmdp.utils.codec;
+
+/**
+ * Writes one format and reads both, by the leading version byte, so the format can be switched with a rolling deploy.
+ *
+ * @author Ernie Lee
+ */
+public class VersionedCacheCodec<T> implements CacheCodec<T> {
+
+    private final CacheCodec<T> jsonCodec;
+    private final CacheCodec<T> binaryCodec;
+    private final boolean writeBinary;
+
+    public VersionedCacheCodec(CacheCodec<T> jsonCodec, CacheCodec<T> binaryCodec, boolean writeBinary) {
+        this.jsonCodec = jsonCodec;
+        this.binaryCodec = binaryCodec;
+        this.writeBinary = writeBinary;
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        return writeBinary ? binaryCodec.encode(value) : jsonCodec.encode(value);
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        if (bytes[0] == FORMAT_BINARY_V1) {
+            return binaryCodec.decode(bytes);
+        }
+        return jsonCodec.decode(bytes);
+    }
+}
@@ -0,0 +1,6 @@
+-- KEYS[1]: cache key, KEYS[2]: version key
+-- ARGV[1]: ttl of the version key in seconds
+redis.call('DEL', KEYS[1])
+redis.call('INCR', KEYS[2])
+redis.call('EXPIRE', KEYS[2], ARGV[1])
+return 1
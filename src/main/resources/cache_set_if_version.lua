@@ -0,0 +1,16 @@
+-- KEYS[1]: cache key, KEYS[2]: version key
+-- ARGV[1]: version read before loading the value, empty if there was none
+-- ARGV[2]: value, ARGV[3]: ttl in seconds, 0 for none, ARGV[4]: ttl of the version key in seconds
+local version = redis.call('GET', KEYS[2])
+if (version or '') ~= ARGV[1] then
+    -- written or invalidated since, the value may be older
+    return 0
+end
+if tonumber(ARGV[3]) > 0 then
+    redis.call('SET', KEYS[1], ARGV[2], 'EX', ARGV[3])
+else
+    redis.call('SET', KEYS[1], ARGV[2])
+end
+redis.call('INCR', KEYS[2])
+redis.call('EXPIRE', KEYS[2], ARGV[4])
+return 1
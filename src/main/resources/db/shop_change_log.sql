@@ -0,0 +1,22 @@
+-- Change log of tb_shop, tailed by ShopChangeLogTailer to refresh the shop cache.
+-- db/hmdp.sql creates the table as well, run this script to add it to a database created before.
+CREATE TABLE IF NOT EXISTS `tb_shop_change_log`
+(
+    `id`          bigint(20) UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '主键，即变更顺序',
+    `shop_id`     bigint(20) UNSIGNED NOT NULL COMMENT '商铺id',
+    `op`          varchar(8)          NOT NULL COMMENT 'INSERT、UPDATE或DELETE',
+    `create_time` timestamp(3)        NOT NULL DEFAULT CURRENT_TIMESTAMP(3) COMMENT '创建时间',
+    PRIMARY KEY (`id`) USING BTREE
+) ENGINE = InnoDB
+  CHARACTER SET = utf8mb4
+  COLLATE = utf8mb4_general_ci
+  ROW_FORMAT = Compact;
+
+-- Optional: capture writes that bypass the application as well.
+-- Set cache.shop.cdc.interceptor.enabled=false when the triggers are installed, or every change is logged twice.
+CREATE TRIGGER `tb_shop_after_insert` AFTER INSERT ON `tb_shop` FOR EACH ROW
+    INSERT INTO `tb_shop_change_log` (`shop_id`, `op`) VALUES (NEW.`id`, 'INSERT');
+CREATE TRIGGER `tb_shop_after_update` AFTER UPDATE ON `tb_shop` FOR EACH ROW
+    INSERT INTO `tb_shop_change_log` (`shop_id`, `op`) VALUES (NEW.`id`, 'UPDATE');
+CREATE TRIGGER `tb_shop_after_delete` AFTER DELETE ON `tb_shop` FOR EACH ROW
+    INSERT INTO `tb_shop_change_log` (`shop_id`, `op`) VALUES (OLD.`id`, 'DELETE');
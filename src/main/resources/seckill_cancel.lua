@@ -0,0 +1,12 @@
+-- KEYS[1]: stock of the shard the unit was taken from, KEYS[2]: preorders of the shard,
+-- KEYS[3]: users who ordered, only if the shard is the home shard of the user
+-- ARGV[1]: user id
+-- returns 0 if the unit was given back, -1 if the preorder was settled already
+if redis.call('HDEL', KEYS[2], ARGV[1]) == 0 then
+    return -1
+end
+redis.call('INCR', KEYS[1])
+if KEYS[3] then
+    redis.call('SREM', KEYS[3], ARGV[1])
+end
+return 0
@@ -0,0 +1,23 @@
+-- KEYS[1]: stock of the home shard of the user, KEYS[2]: users who ordered, KEYS[3]: preorders not confirmed queued yet,
+-- KEYS[4]: users held while the other shards are tried, all in the same shard
+-- ARGV[1]: user id, ARGV[2]: 1 to keep the user in KEYS[2] when the shard is empty, while the other shards are tried,
+-- ARGV[3]: order id and time of the preorder
+-- returns 0 if ordered, -1 if there is no such voucher, -2 if the shard is empty, -3 if the user ordered already
+local stock = redis.call('GET', KEYS[1])
+if not stock then
+    return -1
+end
+if redis.call('SISMEMBER', KEYS[2], ARGV[1]) == 1 then
+    return -3
+end
+if tonumber(stock) <= 0 then
+    if ARGV[2] == '1' then
+        redis.call('SADD', KEYS[2], ARGV[1])
+        redis.call('HSET', KEYS[4], ARGV[1], ARGV[3])
+    end
+    return -2
+end
+redis.call('DECR', KEYS[1])
+redis.call('SADD', KEYS[2], ARGV[1])
+redis.call('HSET', KEYS[3], ARGV[1], ARGV[3])
+return 0
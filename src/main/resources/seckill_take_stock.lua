@@ -0,0 +1,13 @@
+-- KEYS[1]: stock of a shard, KEYS[2]: preorders of the shard not confirmed queued yet
+-- ARGV[1]: user id, ARGV[2]: order id and time of the preorder
+-- returns 0 if one was taken, -1 if there is no such voucher, -2 if the shard is empty
+local stock = redis.call('GET', KEYS[1])
+if not stock then
+    return -1
+end
+if tonumber(stock) <= 0 then
+    return -2
+end
+redis.call('DECR', KEYS[1])
+redis.call('HSET', KEYS[2], ARGV[1], ARGV[2])
+return 0
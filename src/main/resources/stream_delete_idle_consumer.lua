@@ -0,0 +1,8 @@
+-- KEYS[1]: stream
+-- ARGV[1]: group, ARGV[2]: consumer
+-- deletes the consumer only if nothing is pending at it, so no record is dropped from the group
+-- returns the pending records deleted with the consumer, always 0, or -1 if records are pending
+if #redis.call('XPENDING', KEYS[1], ARGV[1], '-', '+', 1, ARGV[2]) > 0 then
+    return -1
+end
+return redis.call('XGROUP', 'DELCONSUMER', KEYS[1], ARGV[1], ARGV[2])
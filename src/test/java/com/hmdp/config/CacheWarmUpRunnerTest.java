@@ -0,0 +1,59 @@
+package com.hmdp.config;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.ShopAccessLog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CacheWarmUpRunnerTest {
+
+    CacheWarmUpRunner runner;
+
+    @BeforeEach
+    void setUp() {
+        runner = new CacheWarmUpRunner();
+        runner.shopService = mock(IShopService.class);
+        runner.shopTypeService = mock(IShopTypeService.class);
+        runner.shopAccessLog = mock(ShopAccessLog.class);
+        runner.enabled = true;
+        runner.source = "access-log";
+        runner.topN = 5;
+        runner.batchSize = 2;
+        runner.threads = 2;
+        runner.ratePerSecond = 1000;
+        runner.timeoutSeconds = 10;
+    }
+
+    @Test
+    void testWarmUpAccessLogInBatches() throws InterruptedException {
+        when(runner.shopAccessLog.topIds(5)).thenReturn(Arrays.asList(1L, 2L, 3L, 4L, 5L));
+        when(runner.shopService.warmUpCache(anyList())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).size());
+
+        runner.run(null);
+
+        verify(runner.shopTypeService, times(1)).queryTypeList();
+        verify(runner.shopService, times(1)).warmUpCache(Arrays.asList(1L, 2L));
+        verify(runner.shopService, times(1)).warmUpCache(Arrays.asList(3L, 4L));
+        verify(runner.shopService, times(1)).warmUpCache(Arrays.asList(5L));
+    }
+
+    @Test
+    void testFailedBatchDoesNotStopWarmUp() throws InterruptedException {
+        when(runner.shopService.warmUpCache(Arrays.asList(1L, 2L))).thenThrow(new IllegalStateException("mysql is down"));
+        when(runner.shopService.warmUpCache(Arrays.asList(3L))).thenReturn(1);
+
+        assertEquals(1, runner.warmUpShops(Arrays.asList(1L, 2L, 3L)));
+    }
+}
@@ -1,21 +1,51 @@
 package com.hmdp.service.impl;
 
-import java.util.concurrent.TimeUnit;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.GeoOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
+import com.hmdp.utils.BloomFilter;
+import com.hmdp.utils.CacheClientFactory;
+import com.hmdp.utils.CacheInvalidationBus;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.GeoGridIndex;
 import com.hmdp.utils.ObjectMapperProvider;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopAccessLog;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.codec.ShopBinaryCodec;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -24,21 +54,46 @@ import static org.mockito.Mockito.when;
 public class ShopServiceImplTest {
 
     ShopServiceImpl shopService;
+    StringRedisTemplate redisTemplate;
+    RedisTemplate<String, byte[]> bytesRedisTemplate;
+    CacheInvalidationBus cacheInvalidationBus;
+    CacheRebuildExecutor cacheRebuildExecutor;
 
     @BeforeEach
     void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        bytesRedisTemplate = mock(RedisTemplate.class);
+        cacheInvalidationBus = mock(CacheInvalidationBus.class);
+        cacheRebuildExecutor = mock(CacheRebuildExecutor.class);
+        when(bytesRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any(), any(), any())).thenReturn(1L);
         shopService = spy(new ShopServiceImpl());
-        shopService.redisTemplate = mock(StringRedisTemplate.class);
+        shopService.cacheClientFactory = new CacheClientFactory(redisTemplate, bytesRedisTemplate, cacheInvalidationBus, cacheRebuildExecutor);
         shopService.objectMapper = new ObjectMapperProvider().objectMapper();
+        shopService.shopAccessLog = mock(ShopAccessLog.class);
+        shopService.redisTemplate = redisTemplate;
+        shopService.cacheInvalidationBus = cacheInvalidationBus;
+        shopService.shopGeoRadiusMeters = 5000;
+        shopService.cacheShopTypePages = 3;
+        shopService.cacheShopTypePageTtlSeconds = 600;
         shopService.cacheShopTtlSeconds = 60;
+        shopService.cacheShopRebuildStrategy = "simple";
+        shopService.cacheShopCodec = "json";
+        shopService.cacheShopLocalCapacity = 100;
+        shopService.cacheShopLocalTtlSeconds = 60;
+        shopService.cacheHotKeySketchWidth = 64;
+        shopService.cacheHotKeyThreshold = 1000;
+        shopService.cacheHotKeyWindowMillis = 1000;
+        shopService.cacheHotKeyMaxSize = 10;
+        shopService.cacheHotKeyLocalTtlMillis = 1000;
+        shopService.init();
     }
 
     @Test
     void testShopByIdNoCache() throws JsonProcessingException {
         shopService.cacheShopTtlSeconds = 60;
-        ValueOperations<String, String> mock = mock(ValueOperations.class);
+        ValueOperations<String, byte[]> mock = mock(ValueOperations.class);
         when(mock.get(RedisConstants.CACHE_SHOP_KEY + 1L)).thenReturn(null);
-        when(shopService.redisTemplate.opsForValue()).thenReturn(mock);
+        when(bytesRedisTemplate.opsForValue()).thenReturn(mock);
 
         Shop dbShop = new Shop();
         dbShop.setId(1L);
@@ -58,11 +113,13 @@ public class ShopServiceImplTest {
         shopService.query(1L);
 
         verify(shopService, times(1)).getById(1L);
-        verify(mock, times(1)).set(
-                RedisConstants.CACHE_SHOP_KEY + 1L,
-                shopService.objectMapper.writeValueAsString(dbShop),
-                shopService.cacheShopTtlSeconds,
-                TimeUnit.SECONDS);
+        verify(bytesRedisTemplate, times(1)).execute(
+                any(RedisScript.class),
+                eq(Arrays.asList(RedisConstants.CACHE_SHOP_KEY + 1L, RedisConstants.CACHE_VERSION_KEY + "{cache:shop:1}")),
+                any(),
+                aryEq(shopService.objectMapper.writeValueAsBytes(dbShop)),
+                aryEq(String.valueOf(shopService.cacheShopTtlSeconds).getBytes()),
+                any());
     }
 
     @Test
@@ -81,16 +138,316 @@ public class ShopServiceImplTest {
         dbShop.setCreateTime(null);
         dbShop.setUpdateTime(null);
 
-        String json = shopService.objectMapper.writeValueAsString(dbShop);
+        byte[] json = shopService.objectMapper.writeValueAsBytes(dbShop);
 
         shopService.cacheShopTtlSeconds = 60;
-        ValueOperations<String, String> mock = mock(ValueOperations.class);
+        ValueOperations<String, byte[]> mock = mock(ValueOperations.class);
         when(mock.get(RedisConstants.CACHE_SHOP_KEY + 1L)).thenReturn(json);
-        when(shopService.redisTemplate.opsForValue()).thenReturn(mock);
+        when(bytesRedisTemplate.opsForValue()).thenReturn(mock);
 
         shopService.query(1L);
 
         verify(shopService, times(0)).getById(1L);
-        verify(mock, times(0)).set(any(), any(), anyLong(), any());
+        verify(bytesRedisTemplate, never()).execute(any(RedisScript.class), anyList(), any(), any(), any(), any());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testQueryBatchLoadsMissesOnce() throws JsonProcessingException {
+        Shop cached = new Shop();
+        cached.setId(1L);
+        cached.setName("cached");
+        Shop loaded = new Shop();
+        loaded.setId(2L);
+        loaded.setName("loaded");
+
+        ValueOperations<String, byte[]> mock = mock(ValueOperations.class);
+        when(mock.multiGet(Arrays.asList(RedisConstants.CACHE_SHOP_KEY + 1L, RedisConstants.CACHE_SHOP_KEY + 2L, RedisConstants.CACHE_SHOP_KEY + 3L,
+                RedisConstants.CACHE_VERSION_KEY + "{cache:shop:1}", RedisConstants.CACHE_VERSION_KEY + "{cache:shop:2}", RedisConstants.CACHE_VERSION_KEY + "{cache:shop:3}")))
+                .thenReturn(Arrays.asList(shopService.objectMapper.writeValueAsBytes(cached), null, null, null, null, null));
+        when(bytesRedisTemplate.opsForValue()).thenReturn(mock);
+        doReturn(Collections.singletonList(loaded)).when(shopService).listByIds(Arrays.asList(2L, 3L));
+
+        Map<Long, Shop> shops = shopService.queryBatchFromCache(Arrays.asList(1L, 2L, 3L));
+
+        assertEquals("cached", shops.get(1L).getName());
+        assertEquals("loaded", shops.get(2L).getName());
+        assertFalse(shops.containsKey(3L));
+        verify(shopService, times(1)).listByIds(any());
+        verify(shopService, never()).getById(any());
+        verify(bytesRedisTemplate, times(1)).executePipelined(any(SessionCallback.class));
+    }
+
+    @Test
+    void testShopByIdWithLocalCache() throws JsonProcessingException {
+        Shop dbShop = new Shop();
+        dbShop.setId(1L);
+        dbShop.setName("test");
+
+        byte[] json = shopService.objectMapper.writeValueAsBytes(dbShop);
+
+        ValueOperations<String, byte[]> mock = mock(ValueOperations.class);
+        when(mock.get(RedisConstants.CACHE_SHOP_KEY + 1L)).thenReturn(json);
+        when(bytesRedisTemplate.opsForValue()).thenReturn(mock);
+
+        shopService.query(1L);
+        shopService.query(1L);
+
+        verify(mock, times(1)).get(RedisConstants.CACHE_SHOP_KEY + 1L);
+        verify(shopService, times(0)).getById(1L);
+    }
+
+    @Test
+    void testUpdateInvalidatesLocalCache() throws JsonProcessingException {
+        Shop dbShop = new Shop();
+        dbShop.setId(1L);
+        dbShop.setName("test");
+
+        byte[] json = shopService.objectMapper.writeValueAsBytes(dbShop);
+
+        ValueOperations<String, byte[]> mock = mock(ValueOperations.class);
+        when(mock.get(RedisConstants.CACHE_SHOP_KEY + 1L)).thenReturn(json);
+        when(bytesRedisTemplate.opsForValue()).thenReturn(mock);
+        doReturn(true).when(shopService).updateById(any());
+
+        shopService.query(1L);
+        shopService.update(dbShop);
+        shopService.query(1L);
+
+        verify(redisTemplate, times(1)).execute(any(RedisScript.class),
+                eq(Arrays.asList(RedisConstants.CACHE_SHOP_KEY + 1L, RedisConstants.CACHE_VERSION_KEY + "{cache:shop:1}")), any());
+        verify(cacheInvalidationBus, times(1)).publish("shop", 1L);
+        verify(mock, times(2)).get(RedisConstants.CACHE_SHOP_KEY + 1L);
+    }
+
+    @Test
+    void testUnknownShopIdIsRejectedByFilter() throws JsonProcessingException {
+        shopService.shopIdFilter = new BloomFilter(100, 0.01);
+        shopService.shopIdFilter.put(1L);
+
+        shopService.query(2L);
+
+        verify(bytesRedisTemplate, never()).opsForValue();
+        verify(shopService, never()).getById(2L);
+    }
+
+    @Test
+    void testNewShopIdReachesFilterOfEveryNode() {
+        shopService.cacheShopBloomEnabled = true;
+        shopService.init();
+        ArgumentCaptor<Consumer<List<String>>> subscriber = ArgumentCaptor.forClass(Consumer.class);
+        verify(cacheInvalidationBus).subscribe(eq("shop-id"), subscriber.capture());
+        shopService.shopIdFilter = new BloomFilter(100, 0.01);
+        doReturn(true).when(shopService).save(any());
+
+        shopService.saveShop(new Shop().setId(7L));
+        verify(cacheInvalidationBus).publish("shop-id", 7L);
+
+        // the id saved by another node arrives over the bus
+        assertFalse(shopService.shopIdFilter.mightContain(8L));
+        subscriber.getValue().accept(Collections.singletonList("8"));
+        assertTrue(shopService.shopIdFilter.mightContain(8L));
+    }
+
+    @Test
+    void testNewShopIdIsNotBroadcastWithoutFilter() {
+        shopService.cacheShopBloomEnabled = false;
+        doReturn(true).when(shopService).save(any());
+
+        shopService.saveShop(new Shop().setId(7L));
+
+        verify(cacheInvalidationBus, never()).publish(eq("shop-id"), any());
+    }
+
+    @Test
+    void testProbabilisticStrategyRefreshesBeforeExpiry() throws JsonProcessingException {
+        shopService.cacheShopRebuildStrategy = "probabilistic";
+        shopService.cacheShopProbabilisticBeta = 1.0;
+        shopService.init();
+
+        Shop dbShop = new Shop();
+        dbShop.setId(1L);
+        dbShop.setName("test");
+        RedisData<Shop> data = new RedisData<>();
+        data.setData(dbShop);
+        data.setExpireTime(LocalDateTime.now().minusSeconds(1));
+        data.setRebuildCostMillis(200L);
+
+        ValueOperations<String, byte[]> mock = mock(ValueOperations.class);
+        when(mock.get(RedisConstants.CACHE_SHOP_KEY + 1L)).thenReturn(shopService.objectMapper.writeValueAsBytes(data));
+        when(bytesRedisTemplate.opsForValue()).thenReturn(mock);
+
+        shopService.query(1L);
+
+        verify(cacheRebuildExecutor, times(1)).submit(eq(RedisConstants.CACHE_SHOP_KEY + 1L), any());
+        verify(shopService, never()).getById(1L);
+    }
+
+    @Test
+    void testProbabilisticStrategyKeepsFreshEntry() throws JsonProcessingException {
+        shopService.cacheShopRebuildStrategy = "probabilistic";
+        shopService.cacheShopProbabilisticBeta = 1.0;
+        shopService.init();
+
+        Shop dbShop = new Shop();
+        dbShop.setId(1L);
+        dbShop.setName("test");
+        RedisData<Shop> data = new RedisData<>();
+        data.setData(dbShop);
+        data.setExpireTime(LocalDateTime.now().plusHours(1));
+        data.setRebuildCostMillis(1L);
+
+        ValueOperations<String, byte[]> mock = mock(ValueOperations.class);
+        when(mock.get(RedisConstants.CACHE_SHOP_KEY + 1L)).thenReturn(shopService.objectMapper.writeValueAsBytes(data));
+        when(bytesRedisTemplate.opsForValue()).thenReturn(mock);
+
+        shopService.query(1L);
+
+        verify(cacheRebuildExecutor, never()).submit(any(), any());
+    }
+
+    @Test
+    void testReadBinaryEntryWhileWritingJson() throws JsonProcessingException {
+        Shop dbShop = new Shop();
+        dbShop.setId(1L);
+        dbShop.setName("test");
+
+        ValueOperations<String, byte[]> mock = mock(ValueOperations.class);
+        when(mock.get(RedisConstants.CACHE_SHOP_KEY + 1L)).thenReturn(new ShopBinaryCodec().encode(dbShop));
+        when(bytesRedisTemplate.opsForValue()).thenReturn(mock);
+
+        shopService.query(1L);
+
+        verify(shopService, never()).getById(1L);
+        verify(bytesRedisTemplate, never()).execute(any(RedisScript.class), anyList(), any(), any(), any(), any());
+    }
+
+    @Test
+    void testQueryNearbyShopsPagesByDistance() throws JsonProcessingException {
+        Shop near = new Shop();
+        near.setId(6L);
+        near.setName("near");
+        Shop far = new Shop();
+        far.setId(7L);
+        far.setName("far");
+
+        GeoOperations<String, String> geo = mock(GeoOperations.class);
+        when(redisTemplate.opsForGeo()).thenReturn(geo);
+        when(geo.radius(eq(RedisConstants.SHOP_GEO_KEY + 1), any(), any(RedisGeoCommands.GeoRadiusCommandArgs.class)))
+                .thenReturn(new GeoResults<>(Arrays.asList(
+                        geoResult("1", 10), geoResult("2", 20), geoResult("3", 30), geoResult("4", 40), geoResult("5", 50),
+                        geoResult("6", 60), geoResult("7", 70))));
+        ValueOperations<String, byte[]> mock = mock(ValueOperations.class);
+        when(mock.multiGet(any())).thenReturn(Arrays.asList(
+                shopService.objectMapper.writeValueAsBytes(near), shopService.objectMapper.writeValueAsBytes(far), null, null));
+        when(bytesRedisTemplate.opsForValue()).thenReturn(mock);
+
+        Result result = shopService.queryShopByType(1, 2, 120.1, 30.2);
+
+        List<Shop> shops = (List<Shop>) result.getData();
+        assertEquals(2, shops.size());
+        assertEquals("near", shops.get(0).getName());
+        assertEquals(60.0, shops.get(0).getDistance());
+        assertEquals(70.0, shops.get(1).getDistance());
+        verify(shopService, never()).query();
+    }
+
+    @Test
+    void testQueryNearbyShopsFromLocalIndex() throws JsonProcessingException {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("near");
+        shopService.shopGeoIndex = new GeoGridIndex(0.01);
+        shopService.shopGeoIndex.put(1L, 1L, 120.1, 30.2);
+        shopService.shopGeoIndex.put(2L, 1L, 121.1, 30.2);
+        shopService.shopIndexesLoaded = true;
+        ValueOperations<String, byte[]> mock = mock(ValueOperations.class);
+        when(mock.multiGet(any())).thenReturn(Arrays.asList(shopService.objectMapper.writeValueAsBytes(shop), null));
+        when(bytesRedisTemplate.opsForValue()).thenReturn(mock);
+
+        Result result = shopService.queryShopByType(1, 1, 120.1, 30.2);
+
+        List<Shop> shops = (List<Shop>) result.getData();
+        assertEquals(1, shops.size());
+        assertEquals(0.0, shops.get(0).getDistance());
+        verify(redisTemplate, never()).opsForGeo();
+    }
+
+    @Test
+    void testIndexEntriesCarryTheChangedFields() {
+        shopService.shopGeoIndex = new GeoGridIndex(0.01);
+        shopService.shopNameIndex = new ShopNameIndex();
+        Shop shop = new Shop().setId(1L).setTypeId(1L).setX(120.1).setY(30.2).setName("茶餐厅,1:2").setArea("大关");
+
+        shopService.applyShopIndexEntries(Collections.singletonList(ShopServiceImpl.shopIndexEntry(1L, shop)));
+
+        assertEquals(1, shopService.shopGeoIndex.nearest(1L, 120.1, 30.2, 5000, 10).size());
+        assertEquals(Collections.singletonList(1L), shopService.shopNameIndex.search("餐厅", 0, 10).getShopIds());
+        verify(shopService, never()).getById(any());
+
+        shopService.applyShopIndexEntries(Collections.singletonList(ShopServiceImpl.shopIndexEntry(1L, null)));
+
+        assertEquals(0, shopService.shopGeoIndex.nearest(1L, 120.1, 30.2, 5000, 10).size());
+        assertEquals(0, shopService.shopNameIndex.search("餐厅", 0, 10).getShopIds().size());
+    }
+
+    @Test
+    void testFirstPagesOfTypeAreServedFromCache() throws JsonProcessingException {
+        Shop first = new Shop();
+        first.setId(6L);
+        first.setTypeId(1L);
+        Shop second = new Shop();
+        second.setId(7L);
+        second.setTypeId(1L);
+        ValueOperations<String, byte[]> mock = mock(ValueOperations.class);
+        when(mock.get(RedisConstants.CACHE_SHOP_TYPE_PAGE_KEY + 1L))
+                .thenReturn(shopService.objectMapper.writeValueAsBytes(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L)));
+        when(mock.multiGet(any())).thenReturn(Arrays.asList(
+                shopService.objectMapper.writeValueAsBytes(first), shopService.objectMapper.writeValueAsBytes(second), null, null));
+        when(bytesRedisTemplate.opsForValue()).thenReturn(mock);
+
+        Result result = shopService.queryShopByType(1, 2, null, null);
+
+        List<Shop> shops = (List<Shop>) result.getData();
+        assertEquals(Arrays.asList(6L, 7L), Arrays.asList(shops.get(0).getId(), shops.get(1).getId()));
+        verify(shopService, never()).query();
+    }
+
+    @Test
+    void testPageBeforeFirstReadsFirstPage() throws JsonProcessingException {
+        Shop first = new Shop();
+        first.setId(1L);
+        first.setTypeId(1L);
+        ValueOperations<String, byte[]> mock = mock(ValueOperations.class);
+        when(mock.get(RedisConstants.CACHE_SHOP_TYPE_PAGE_KEY + 1L)).thenReturn(shopService.objectMapper.writeValueAsBytes(Arrays.asList(1L)));
+        when(mock.multiGet(any())).thenReturn(Collections.singletonList(shopService.objectMapper.writeValueAsBytes(first)));
+        when(bytesRedisTemplate.opsForValue()).thenReturn(mock);
+        shopService.shopGeoIndex = new GeoGridIndex(0.01);
+        shopService.shopGeoIndex.put(1L, 1L, 120.1, 30.2);
+        shopService.shopIndexesLoaded = true;
+
+        List<Shop> cached = (List<Shop>) shopService.queryShopByType(1, 0, null, null).getData();
+        List<Shop> nearby = (List<Shop>) shopService.queryShopByType(1, -1, 120.1, 30.2).getData();
+
+        assertEquals(1L, cached.get(0).getId());
+        assertEquals(1L, nearby.get(0).getId());
+    }
+
+    @Test
+    void testNamePageBeforeFirstReadsFirstPage() throws JsonProcessingException {
+        Shop shop = new Shop().setId(1L).setName("茶餐厅");
+        shopService.shopNameIndex = new ShopNameIndex();
+        shopService.shopNameIndex.put(1L, "茶餐厅", "大关");
+        shopService.shopIndexesLoaded = true;
+        ValueOperations<String, byte[]> mock = mock(ValueOperations.class);
+        when(mock.multiGet(any())).thenReturn(Collections.singletonList(shopService.objectMapper.writeValueAsBytes(shop)));
+        when(bytesRedisTemplate.opsForValue()).thenReturn(mock);
+
+        List<Shop> shops = (List<Shop>) shopService.queryShopByName("餐厅", 0).getData();
+
+        assertEquals(1L, shops.get(0).getId());
+    }
+
+    private static GeoResult<RedisGeoCommands.GeoLocation<String>> geoResult(String id, double meters) {
+        return new GeoResult<>(new RedisGeoCommands.GeoLocation<>(id, null), new Distance(meters, RedisGeoCommands.DistanceUnit.METERS));
+    }
+}
@@ -0,0 +1,128 @@
+package com.hmdp.service.impl;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.ShopType;
+import com.hmdp.utils.CacheInvalidationBus;
+import com.hmdp.utils.JsonSnapshot;
+import com.hmdp.utils.ObjectMapperProvider;
+import com.hmdp.utils.RedisConstants;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ShopTypeServiceImplTest {
+
+    private static final String VERSION_KEY = RedisConstants.CACHE_VERSION_KEY + "shop-type";
+
+    ShopTypeServiceImpl typeService;
+    StringRedisTemplate redisTemplate;
+    ValueOperations<String, String> valueOperations;
+    ZSetOperations<String, String> zSetOperations;
+    CacheInvalidationBus cacheInvalidationBus;
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        valueOperations = mock(ValueOperations.class);
+        zSetOperations = mock(ZSetOperations.class);
+        cacheInvalidationBus = mock(CacheInvalidationBus.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        typeService = new ShopTypeServiceImpl();
+        typeService.objectMapper = new ObjectMapperProvider().objectMapper();
+        typeService.redisTemplate = redisTemplate;
+        typeService.cacheInvalidationBus = cacheInvalidationBus;
+        typeService.init();
+    }
+
+    @Test
+    void testSnapshotIsSerializedOnce() throws JsonProcessingException {
+        when(valueOperations.get(VERSION_KEY)).thenReturn("3");
+        when(zSetOperations.range(RedisConstants.CACHE_SHOP_TYPE_KEY, 0, -1)).thenReturn(members(type(1L, "美食"), type(2L, "KTV")));
+
+        JsonSnapshot<List<ShopType>> first = typeService.queryTypeListSnapshot();
+        JsonSnapshot<List<ShopType>> second = typeService.queryTypeListSnapshot();
+
+        assertSame(first, second);
+        assertEquals(3L, first.getVersion());
+        assertArrayEquals(typeService.objectMapper.writeValueAsBytes(Result.ok(first.getValue())), first.getBody());
+        assertTrue(first.getEtag().startsWith("\"") && first.getEtag().endsWith("\""));
+        verify(zSetOperations, times(1)).range(RedisConstants.CACHE_SHOP_TYPE_KEY, 0, -1);
+    }
+
+    @Test
+    void testVersionBumpReloadsSnapshot() throws JsonProcessingException {
+        when(valueOperations.get(VERSION_KEY)).thenReturn("1");
+        when(zSetOperations.range(RedisConstants.CACHE_SHOP_TYPE_KEY, 0, -1)).thenReturn(members(type(1L, "美食")));
+        JsonSnapshot<List<ShopType>> before = typeService.queryTypeListSnapshot();
+
+        // same version, nothing is read again
+        typeService.checkTypeListVersion();
+        assertSame(before, typeService.queryTypeListSnapshot());
+
+        when(valueOperations.get(VERSION_KEY)).thenReturn("2");
+        when(zSetOperations.range(RedisConstants.CACHE_SHOP_TYPE_KEY, 0, -1)).thenReturn(members(type(1L, "美食"), type(2L, "KTV")));
+        typeService.checkTypeListVersion();
+        JsonSnapshot<List<ShopType>> after = typeService.queryTypeListSnapshot();
+
+        assertEquals(2L, after.getVersion());
+        assertEquals(2, after.getValue().size());
+        assertNotEquals(before.getEtag(), after.getEtag());
+    }
+
+    @Test
+    void testSameContentKeepsEtag() throws JsonProcessingException {
+        when(valueOperations.get(VERSION_KEY)).thenReturn("1");
+        when(zSetOperations.range(RedisConstants.CACHE_SHOP_TYPE_KEY, 0, -1)).thenReturn(members(type(1L, "美食")));
+        JsonSnapshot<List<ShopType>> before = typeService.queryTypeListSnapshot();
+
+        when(valueOperations.get(VERSION_KEY)).thenReturn("2");
+        typeService.checkTypeListVersion();
+
+        assertEquals(before.getEtag(), typeService.queryTypeListSnapshot().getEtag());
+    }
+
+    @Test
+    void testRefreshBumpsVersionAndBroadcasts() {
+        when(valueOperations.increment(VERSION_KEY)).thenReturn(5L);
+
+        typeService.refreshTypeList();
+
+        verify(redisTemplate).delete(RedisConstants.CACHE_SHOP_TYPE_KEY);
+        verify(cacheInvalidationBus).publish("shop-type", 5L);
+    }
+
+    private ShopType type(Long id, String name) {
+        ShopType shopType = new ShopType();
+        shopType.setId(id);
+        shopType.setName(name);
+        shopType.setSort(id.intValue());
+        return shopType;
+    }
+
+    private LinkedHashSet<String> members(ShopType... types) throws JsonProcessingException {
+        LinkedHashSet<String> members = new LinkedHashSet<>();
+        for (ShopType shopType : Arrays.asList(types)) {
+            members.add(new ObjectMapperProvider().objectMapper().writeValueAsString(shopType));
+        }
+        return members;
+    }
+}
@@ -0,0 +1,301 @@
+package com.hmdp.service.impl;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.baomidou.mybatisplus.extension.conditions.update.UpdateChainWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+
+import lombok.extern.slf4j.Slf4j;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class VoucherOrderServiceRedisAsyncImplTest {
+
+    private static final String STREAM = "stream.orders";
+
+    VoucherOrderServiceRedisAsyncImpl orderService;
+    StringRedisTemplate redisTemplate;
+    StreamOperations<String, Object, Object> streamOperations;
+    ISeckillVoucherService seckillVoucherService;
+    IVoucherOrderService proxy;
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        streamOperations = mock(StreamOperations.class);
+        seckillVoucherService = mock(ISeckillVoucherService.class);
+        proxy = mock(IVoucherOrderService.class);
+        when(redisTemplate.opsForStream()).thenReturn(streamOperations);
+        orderService = spy(new VoucherOrderServiceRedisAsyncImpl());
+        orderService.redisTemplate = redisTemplate;
+        orderService.seckillVoucherService = seckillVoucherService;
+        orderService.proxy = proxy;
+    }
+
+    @Test
+    void testBatchCreatesOrdersTogetherAndAcknowledgesOnce() {
+        when(seckillVoucherService.listByIds(anyCollection())).thenReturn(Collections.singletonList(voucher(9L)));
+        // user 2 was created before the record was delivered again
+        doReturn(Collections.singleton("2:9")).when(orderService).queryOrderedUsers(any());
+        List<MapRecord<String, Object, Object>> records = new ArrayList<>();
+        records.add(record("1-0", 1L, 1L, 9L));
+        records.add(record("2-0", 2L, 2L, 9L));
+        records.add(record("3-0", 3L, 3L, 9L));
+        records.add(record("4-0", 4L, 1L, 9L));
+
+        orderService.handleBatch(records);
+
+        ArgumentCaptor<List<VoucherOrder>> orders = ArgumentCaptor.forClass(List.class);
+        verify(proxy).createVoucherOrders(orders.capture());
+        assertEquals(2, orders.getValue().size());
+        assertEquals(1L, orders.getValue().get(0).getId());
+        assertEquals(3L, orders.getValue().get(1).getId());
+        verify(streamOperations, times(1)).acknowledge(STREAM, "g1",
+                RecordId.of("1-0"), RecordId.of("2-0"), RecordId.of("3-0"), RecordId.of("4-0"));
+    }
+
+    @Test
+    void testFailedBatchFallsBackToSingleRecords() {
+        when(seckillVoucherService.listByIds(anyCollection())).thenReturn(Collections.singletonList(voucher(9L)));
+        when(seckillVoucherService.getById(9L)).thenReturn(voucher(9L));
+        doReturn(Collections.emptySet()).when(orderService).queryOrderedUsers(any());
+        when(proxy.createVoucherOrders(anyList())).thenThrow(new IllegalStateException("not enough stock"));
+        // the duplicate check of a single record counts nothing
+        doReturn(mock(QueryChainWrapper.class, invocation -> {
+            if (invocation.getMethod().getName().equals("count")) {
+                return 0;
+            }
+            return invocation.getMock();
+        })).when(orderService).query();
+
+        orderService.handleBatch(Collections.singletonList(record("1-0", 1L, 1L, 9L)));
+
+        verify(proxy).createVoucherOrder(any(VoucherOrder.class));
+        verify(streamOperations).acknowledge(eq(STREAM), eq("g1"), eq(RecordId.of("1-0")));
+    }
+
+    @Test
+    void testOrdersDeliveredAgainTakeNoStock() {
+        VoucherOrderMapper mapper = mock(VoucherOrderMapper.class);
+        doReturn(mapper).when(orderService).getBaseMapper();
+        // one of the three orders is in the table already
+        when(mapper.insertBatch(anyList())).thenReturn(2);
+        List<String> updates = new ArrayList<>();
+        UpdateChainWrapper<SeckillVoucher> update = mock(UpdateChainWrapper.class, invocation -> {
+            if (invocation.getMethod().getName().equals("setSql")) {
+                updates.add(invocation.getArgument(0));
+            }
+            if (invocation.getMethod().getName().equals("update")) {
+                return true;
+            }
+            return invocation.getMock();
+        });
+        when(seckillVoucherService.update()).thenReturn(update);
+
+        Result result = orderService.createVoucherOrders(Arrays.asList(order(1L, 1L), order(2L, 2L), order(3L, 3L)));
+
+        assertEquals(2, result.getData());
+        assertEquals(Collections.singletonList("stock = stock - 2"), updates);
+    }
+
+    @Test
+    void testDuplicateOrderOfSingleRecordIsAcknowledged() {
+        when(seckillVoucherService.listByIds(anyCollection())).thenReturn(Collections.singletonList(voucher(9L)));
+        when(seckillVoucherService.getById(9L)).thenReturn(voucher(9L));
+        doReturn(Collections.emptySet()).when(orderService).queryOrderedUsers(any());
+        when(proxy.createVoucherOrders(anyList())).thenThrow(new IllegalStateException("not enough stock"));
+        doReturn(mock(QueryChainWrapper.class, invocation -> {
+            if (invocation.getMethod().getName().equals("count")) {
+                return 0;
+            }
+            return invocation.getMock();
+        })).when(orderService).query();
+        when(proxy.createVoucherOrder(any(VoucherOrder.class))).thenThrow(new DuplicateKeyException("uk_user_voucher"));
+
+        orderService.handleBatch(Collections.singletonList(record("1-0", 1L, 1L, 9L)));
+
+        verify(streamOperations).acknowledge(eq(STREAM), eq("g1"), eq(RecordId.of("1-0")));
+    }
+
+    @Test
+    void testClaimIdleOrdersOfOtherConsumers() {
+        orderService.orderBatchSize = 10;
+        orderService.claimIdleMillis = 60_000;
+        PendingMessages pending = new PendingMessages("g1", Arrays.asList(
+                new PendingMessage(RecordId.of("1-0"), Consumer.from("g1", "dead-0"), Duration.ofMinutes(5), 1),
+                new PendingMessage(RecordId.of("2-0"), Consumer.from("g1", "busy-0"), Duration.ofSeconds(1), 1),
+                new PendingMessage(RecordId.of("3-0"), Consumer.from("g1", "me-0"), Duration.ofMinutes(5), 1)));
+        when(streamOperations.pending(eq(STREAM), eq("g1"), any(Range.class), eq(10L))).thenReturn(pending);
+        RedisConnection connection = mock(RedisConnection.class);
+        RedisStreamCommands streamCommands = mock(RedisStreamCommands.class);
+        when(connection.streamCommands()).thenReturn(streamCommands);
+        when(redisTemplate.execute(any(RedisCallback.class))).thenAnswer(invocation ->
+                invocation.<RedisCallback<?>>getArgument(0).doInRedis(connection));
+        Map<byte[], byte[]> fields = new HashMap<>();
+        fields.put("id".getBytes(), "1".getBytes());
+        // only the record idle at another consumer is claimed
+        when(streamCommands.xClaim(any(byte[].class), eq("g1"), eq("me-0"), eq(Duration.ofMinutes(1)), eq(RecordId.of("1-0"))))
+                .thenReturn(Collections.singletonList(StreamRecords.rawBytes(fields).withId(RecordId.of("1-0"))));
+        doNothing().when(orderService).handleBatch(anyList());
+
+        orderService.claimIdleOrders(Consumer.from("g1", "me-0"));
+
+        ArgumentCaptor<List<MapRecord<String, Object, Object>>> records = ArgumentCaptor.forClass(List.class);
+        verify(orderService).handleBatch(records.capture());
+        assertEquals(1, records.getValue().size());
+        assertEquals(RecordId.of("1-0"), records.getValue().get(0).getId());
+        assertEquals("1", records.getValue().get(0).getValue().get("id"));
+    }
+
+    @Test
+    void testClaimPagesPastRecordsOfLiveConsumers() {
+        orderService.orderBatchSize = 2;
+        orderService.claimIdleMillis = 60_000;
+        // the first page is held by a live consumer, the idle record of a stopped one comes after
+        when(streamOperations.pending(STREAM, "g1", Range.unbounded(), 2L)).thenReturn(new PendingMessages("g1", Arrays.asList(
+                new PendingMessage(RecordId.of("1-0"), Consumer.from("g1", "busy-0"), Duration.ofSeconds(1), 1),
+                new PendingMessage(RecordId.of("2-0"), Consumer.from("g1", "busy-0"), Duration.ofSeconds(1), 1))));
+        when(streamOperations.pending(STREAM, "g1", Range.rightUnbounded(Range.Bound.inclusive("2-1")), 2L))
+                .thenReturn(new PendingMessages("g1", Collections.singletonList(
+                        new PendingMessage(RecordId.of("3-0"), Consumer.from("g1", "dead-0"), Duration.ofMinutes(5), 1))));
+        RedisConnection connection = mock(RedisConnection.class);
+        RedisStreamCommands streamCommands = mock(RedisStreamCommands.class);
+        when(connection.streamCommands()).thenReturn(streamCommands);
+        when(redisTemplate.execute(any(RedisCallback.class))).thenAnswer(invocation ->
+                invocation.<RedisCallback<?>>getArgument(0).doInRedis(connection));
+
+        orderService.claimIdleOrders(Consumer.from("g1", "me-0"));
+
+        verify(streamCommands).xClaim(any(byte[].class), eq("g1"), eq("me-0"), eq(Duration.ofMinutes(1)), eq(RecordId.of("3-0")));
+    }
+
+    @Test
+    void testRemoveIdleConsumersWithoutPendingRecords() {
+        orderService.claimIdleMillis = 60_000;
+        when(streamOperations.consumers(STREAM, "g1")).thenReturn(StreamInfo.XInfoConsumers.fromList("g1", Arrays.asList(
+                Arrays.asList("name", "stopped-0", "pending", 0L, "idle", 3_600_000L),
+                Arrays.asList("name", "stuck-0", "pending", 2L, "idle", 3_600_000L),
+                Arrays.asList("name", "live-0", "pending", 0L, "idle", 1_000L))));
+
+        orderService.removeIdleConsumers();
+
+        verify(redisTemplate).execute(any(RedisScript.class), eq(Collections.singletonList(STREAM)), eq("g1"), eq("stopped-0"));
+        verify(redisTemplate, times(1)).execute(any(RedisScript.class), anyList(), any(), any());
+    }
+
+    /**
+     * Models every MySQL and Redis command as a fixed round trip, the cost that batching saves.
+     * A batch of one costs the round trips of the former per record consumer:
+     * the voucher, the duplicate check, the stock update, the insert and the XACK.
+     * */
+    @Test
+    @Tag("benchmark")
+    void benchmarkBatchSizes() {
+        long roundTripNanos = TimeUnit.MICROSECONDS.toNanos(200);
+        int orders = 1000;
+        when(seckillVoucherService.listByIds(anyCollection())).thenAnswer(invocation -> {
+            LockSupport.parkNanos(roundTripNanos);
+            return Collections.singletonList(voucher(9L));
+        });
+        doAnswer(invocation -> {
+            LockSupport.parkNanos(roundTripNanos);
+            return Collections.emptySet();
+        }).when(orderService).queryOrderedUsers(any());
+        doAnswer(invocation -> {
+            // one stock update for the single voucher and one insert
+            LockSupport.parkNanos(2 * roundTripNanos);
+            return null;
+        }).when(proxy).createVoucherOrders(anyList());
+        when(streamOperations.acknowledge(anyString(), anyString(), any(RecordId[].class))).thenAnswer(invocation -> {
+            LockSupport.parkNanos(roundTripNanos);
+            return 1L;
+        });
+
+        for (int batchSize : new int[]{1, 10, 100}) {
+            long start = System.nanoTime();
+            for (int from = 0; from < orders; from += batchSize) {
+                List<MapRecord<String, Object, Object>> records = new ArrayList<>(batchSize);
+                for (long id = from; id < from + batchSize; id++) {
+                    records.add(record((id + 1) + "-0", id + 1, id + 1, 9L));
+                }
+                orderService.handleBatch(records);
+            }
+            long rate = orders * TimeUnit.SECONDS.toNanos(1) / (System.nanoTime() - start);
+            log.info("stream consumer batch {}: {} orders/s at 200us per round trip", batchSize, rate);
+        }
+    }
+
+    private static SeckillVoucher voucher(Long voucherId) {
+        SeckillVoucher voucher = new SeckillVoucher();
+        voucher.setVoucherId(voucherId);
+        voucher.setStock(1_000_000);
+        voucher.setBeginTime(LocalDateTime.now().minusHours(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        return voucher;
+    }
+
+    private static VoucherOrder order(Long orderId, Long userId) {
+        VoucherOrder order = new VoucherOrder();
+        order.setId(orderId);
+        order.setUserId(userId);
+        order.setVoucherId(9L);
+        return order;
+    }
+
+    private static MapRecord<String, Object, Object> record(String recordId, Long orderId, Long userId, Long voucherId) {
+        Map<Object, Object> fields = new HashMap<>();
+        fields.put("id", orderId.toString());
+        fields.put("userId", userId.toString());
+        fields.put("voucherId", voucherId.toString());
+        return StreamRecords.newRecord().in(STREAM).withId(RecordId.of(recordId)).ofMap(fields);
+    }
+}
@@ -0,0 +1,71 @@
+package com.hmdp.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.baomidou.mybatisplus.extension.conditions.update.UpdateChainWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.SeckillStockShards;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class VoucherServiceImplTest {
+
+    VoucherServiceImpl voucherService;
+    ISeckillVoucherService seckillVoucherService;
+    SeckillStockShards seckillStockShards;
+    UpdateChainWrapper<SeckillVoucher> update;
+
+    @BeforeEach
+    void setUp() {
+        seckillVoucherService = mock(ISeckillVoucherService.class);
+        seckillStockShards = mock(SeckillStockShards.class);
+        update = mock(UpdateChainWrapper.class, RETURNS_SELF);
+        when(update.update()).thenReturn(true);
+        when(seckillVoucherService.update()).thenReturn(update);
+        voucherService = new VoucherServiceImpl();
+        voucherService.seckillVoucherService = seckillVoucherService;
+        voucherService.seckillStockShards = seckillStockShards;
+    }
+
+    @Test
+    void testRestockWaitsForCommit() {
+        when(seckillStockShards.exists(9L)).thenReturn(true);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            Result result = voucherService.addSeckillStock(9L, 10);
+
+            assertTrue(result.getSuccess());
+            // a failed commit leaves Redis untouched
+            verify(seckillStockShards, never()).restock(anyLong(), anyInt());
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        verify(seckillStockShards).restock(9L, 10);
+    }
+
+    @Test
+    void testVoucherWithoutSeckillStockIsNotUpdated() {
+        when(seckillStockShards.exists(9L)).thenReturn(false);
+
+        Result result = voucherService.addSeckillStock(9L, 10);
+
+        assertFalse(result.getSuccess());
+        verify(seckillVoucherService, never()).update();
+        verify(seckillStockShards, never()).restock(anyLong(), anyInt());
+    }
+}
@@ -0,0 +1,146 @@
+package com.hmdp.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.lettuce.core.cluster.SlotHash;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.utils.codec.JsonCacheCodec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CacheClientTest {
+
+    ObjectMapper objectMapper = new ObjectMapperProvider().objectMapper();
+    StringRedisTemplate redisTemplate;
+    RedisTemplate<String, byte[]> bytesRedisTemplate;
+    ValueOperations<String, byte[]> operations;
+    CacheRebuildExecutor cacheRebuildExecutor;
+    CacheClientFactory factory;
+    AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        bytesRedisTemplate = mock(RedisTemplate.class);
+        operations = mock(ValueOperations.class);
+        when(bytesRedisTemplate.opsForValue()).thenReturn(operations);
+        when(bytesRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any(), any(), any())).thenReturn(1L);
+        cacheRebuildExecutor = mock(CacheRebuildExecutor.class);
+        redisTemplate = mock(StringRedisTemplate.class);
+        factory = new CacheClientFactory(redisTemplate, bytesRedisTemplate, mock(CacheInvalidationBus.class), cacheRebuildExecutor);
+    }
+
+    private CacheClient<Long, String> build(String strategy) {
+        return factory.<Long, String>builder("user", "cache:user:")
+                .strategy(strategy)
+                .ttlSeconds(60)
+                .nullTtlSeconds(10)
+                .ttlJitterRatio(0)
+                .codec(new JsonCacheCodec<>(objectMapper, String.class),
+                        new JsonCacheCodec<>(objectMapper, new TypeReference<RedisData<String>>() {}))
+                .loader(id -> {
+                    loads.incrementAndGet();
+                    return id == 1L ? "alice" : null;
+                })
+                .build();
+    }
+
+    @Test
+    void testCacheMissingValue() {
+        CacheClient<Long, String> client = build("simple");
+
+        assertNull(client.get(2L));
+        assertNull(client.get(2L));
+
+        assertEquals(1, loads.get());
+        verify(bytesRedisTemplate, times(1)).execute(any(RedisScript.class), eq(Arrays.asList("cache:user:2", "cache:version:{cache:user:2}")),
+                aryEq(new byte[0]), aryEq(new byte[0]), aryEq(bytes("10")), aryEq(bytes("86400")));
+    }
+
+    @Test
+    void testValueLoadedBeforeAWriteIsNotCached() {
+        CacheClient<Long, String> client = build("simple");
+        when(operations.get("cache:version:{cache:user:1}")).thenReturn(bytes("3"));
+        // the version moved on while loading
+        when(bytesRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any(), any(), any())).thenReturn(0L);
+
+        assertEquals("alice", client.get(1L));
+        assertEquals("alice", client.get(1L));
+
+        assertEquals(2, loads.get());
+        verify(bytesRedisTemplate, times(2)).execute(any(RedisScript.class), anyList(),
+                aryEq(bytes("3")), any(), any(), any());
+        assertEquals(2L, client.stats().get("versionConflicts"));
+    }
+
+    @Test
+    void testVersionKeyIsInSlotOfCacheKey() {
+        CacheClient<Long, String> client = build("simple");
+        assertEquals("cache:version:{cache:user:1}", client.versionKey(1L));
+        assertEquals(SlotHash.getSlot("cache:user:1"), SlotHash.getSlot(client.versionKey(1L)));
+
+        CacheClient<String, String> tagged = factory.<String, String>builder("seckill", "cache:seckill:")
+                .codec(new JsonCacheCodec<>(objectMapper, String.class),
+                        new JsonCacheCodec<>(objectMapper, new TypeReference<RedisData<String>>() {}))
+                .loader(key -> null)
+                .build();
+        assertEquals(SlotHash.getSlot("cache:seckill:{9}:1"), SlotHash.getSlot(tagged.versionKey("{9}:1")));
+    }
+
+    @Test
+    void testInvalidateInTransactionDeletesAfterCommit() {
+        CacheClient<Long, String> client = build("simple");
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            client.invalidate(1L);
+            // a reader missing before the commit would load the old row under the new version
+            verify(redisTemplate, never()).execute(any(RedisScript.class), anyList(), any());
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        verify(redisTemplate).execute(any(RedisScript.class), eq(Arrays.asList("cache:user:1", "cache:version:{cache:user:1}")), eq("86400"));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testServeStaleValueAndRefreshAsync() throws Exception {
+        CacheClient<Long, String> client = build("logic-expiration");
+        RedisData<String> data = new RedisData<>();
+        data.setData("alice");
+        data.setExpireTime(LocalDateTime.now().minusSeconds(1));
+        when(operations.get("cache:user:1")).thenReturn(objectMapper.writeValueAsBytes(data));
+
+        assertEquals("alice", client.get(1L));
+
+        assertEquals(0, loads.get());
+        verify(cacheRebuildExecutor, times(1)).submit(eq("cache:user:1"), any());
+    }
+}
@@ -0,0 +1,66 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CacheInvalidationBusTest {
+
+    StringRedisTemplate redisTemplate;
+    CacheInvalidationBus bus;
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        bus = new CacheInvalidationBus(redisTemplate, mock(RedisMessageListenerContainer.class));
+        bus.batchSize = 2;
+    }
+
+    @Test
+    void testCoalesceDuplicatedKeys() {
+        bus.publish("shop", 1L);
+        bus.publish("shop", 1L);
+        bus.publish("shop", 1L);
+
+        bus.flush();
+
+        verify(redisTemplate, times(1)).convertAndSend(RedisConstants.CACHE_INVALIDATION_CHANNEL + "shop", "1");
+    }
+
+    @Test
+    void testFlushInBatches() {
+        bus.publish("shop", Arrays.asList(1L, 2L, 3L));
+
+        bus.flush();
+        bus.flush();
+
+        verify(redisTemplate, times(2)).convertAndSend(eq(RedisConstants.CACHE_INVALIDATION_CHANNEL + "shop"), anyString());
+    }
+
+    @Test
+    void testLatestEntryOfKeyWins() {
+        bus.publishEntry("shop-index", 1L, "1:old");
+        bus.publishEntry("shop-index", 1L, "1:new");
+
+        bus.flush();
+
+        verify(redisTemplate, times(1)).convertAndSend(RedisConstants.CACHE_INVALIDATION_CHANNEL + "shop-index", "1:new");
+    }
+
+    @Test
+    void testNothingToFlush() {
+        bus.flush();
+
+        verify(redisTemplate, never()).convertAndSend(anyString(), anyString());
+    }
+}
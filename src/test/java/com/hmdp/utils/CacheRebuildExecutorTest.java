@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CacheRebuildExecutorTest {
+
+    CacheRebuildExecutor executor;
+    CountDownLatch release;
+
+    @BeforeEach
+    void setUp() {
+        executor = new CacheRebuildExecutor(1, 1);
+        release = new CountDownLatch(1);
+    }
+
+    @Test
+    void testDeduplicatePendingKey() {
+        assertTrue(executor.submit("cache:shop:1", this::block));
+        assertFalse(executor.submit("cache:shop:1", this::block));
+
+        assertEquals(1, executor.getSubmittedCount());
+        assertEquals(1, executor.getDeduplicatedCount());
+    }
+
+    @Test
+    void testRejectWhenQueueIsFull() {
+        assertTrue(executor.submit("cache:shop:1", this::block));
+        assertTrue(executor.submit("cache:shop:2", this::block));
+        assertFalse(executor.submit("cache:shop:3", this::block));
+
+        assertEquals(1, executor.getRejectedCount());
+        assertEquals(2, executor.getPendingCount());
+    }
+
+    @Test
+    void testKeyCanBeSubmittedAgainAfterCompletion() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(executor.submit("cache:shop:1", done::countDown));
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+
+        // the key is released right after the task returns
+        Thread.sleep(50);
+        assertTrue(executor.submit("cache:shop:1", () -> {}));
+    }
+
+    private void block() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        release.countDown();
+        executor.destroy();
+    }
+}
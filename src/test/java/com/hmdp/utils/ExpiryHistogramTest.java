@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ExpiryHistogramTest {
+
+    @Test
+    void testJitterSpreadsExpiry() {
+        ExpiryHistogram fixed = new ExpiryHistogram(1000, 200);
+        ExpiryHistogram jittered = new ExpiryHistogram(1000, 200);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            fixed.record(now + 120_000);
+            jittered.record(now + TtlJitter.apply(120, 0.5) * 1000);
+        }
+
+        assertEquals(1.0, fixed.peakShare());
+        assertTrue(jittered.peakShare() < 0.1, "peak share: " + jittered.peakShare());
+        assertTrue(jittered.upcoming().size() > 50);
+    }
+
+    @Test
+    void testReuseSlotOfOlderPeriod() {
+        ExpiryHistogram histogram = new ExpiryHistogram(1000, 10);
+        long now = System.currentTimeMillis();
+        histogram.record(now - 9000);
+        histogram.record(now + 1000);
+        histogram.record(now + 1000);
+
+        long slotStart = (now + 1000) / 1000 * 1000;
+        assertEquals(2L, histogram.upcoming().get(slotStart));
+    }
+}
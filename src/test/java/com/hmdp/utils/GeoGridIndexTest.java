@@ -0,0 +1,145 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import lombok.extern.slf4j.Slf4j;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+public class GeoGridIndexTest {
+
+    private static final int SHOPS = 1_000_000;
+    private static final int TYPES = 10;
+    private static final int QUERIES = 10_000;
+    // a city sized area, about 50km across
+    private static final double MIN_X = 120.0;
+    private static final double MIN_Y = 30.0;
+    private static final double SPAN = 0.5;
+
+    @Test
+    void testNearestMatchesBruteForce() {
+        GeoGridIndex index = new GeoGridIndex(0.01);
+        Random random = new Random(1);
+        Map<Long, double[]> points = new HashMap<>();
+        for (long id = 1; id <= 5000; id++) {
+            double[] point = {MIN_X + random.nextDouble() * SPAN, MIN_Y + random.nextDouble() * SPAN};
+            points.put(id, point);
+            index.put(id, 1, point[0], point[1]);
+        }
+
+        for (int q = 0; q < 50; q++) {
+            double x = MIN_X + random.nextDouble() * SPAN;
+            double y = MIN_Y + random.nextDouble() * SPAN;
+            List<GeoGridIndex.Neighbor> expected = new ArrayList<>();
+            points.forEach((id, point) -> {
+                double distance = GeoGridIndex.distance(x, y, point[0], point[1]);
+                if (distance <= 3000) {
+                    expected.add(new GeoGridIndex.Neighbor(id, distance));
+                }
+            });
+            expected.sort(Comparator.comparingDouble(GeoGridIndex.Neighbor::getDistance));
+
+            assertEquals(expected.subList(0, Math.min(10, expected.size())), index.nearest(1, x, y, 3000, 10));
+        }
+    }
+
+    @Test
+    void testMoveAndRemove() {
+        GeoGridIndex index = new GeoGridIndex(0.01);
+        index.put(1, 1, 120.10, 30.10);
+        index.put(2, 1, 120.11, 30.10);
+
+        index.put(1, 2, 120.10, 30.10);
+        index.remove(2);
+
+        assertTrue(index.nearest(1, 120.10, 30.10, 5000, 10).isEmpty());
+        assertEquals(1, index.nearest(2, 120.10, 30.10, 5000, 10).get(0).getId());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void testDistanceUsesRedisEarthRadius() {
+        // 0.01 degree of a meridian on the 6372797.560856m radius of Redis GEO
+        assertEquals(1112.263, GeoGridIndex.distance(120.0, 30.0, 120.0, 30.01), 0.001);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmarkNearestAtOneMillionShops() {
+        GeoGridIndex index = new GeoGridIndex(0.01);
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        for (long id = 1; id <= SHOPS; id++) {
+            index.put(id, id % TYPES, MIN_X + random.nextDouble() * SPAN, MIN_Y + random.nextDouble() * SPAN);
+        }
+        log.info("local index build: {}ms for {} shops", (System.nanoTime() - start) / 1_000_000, SHOPS);
+
+        long sink = 0;
+        // warm up the JIT
+        for (int q = 0; q < QUERIES; q++) {
+            sink += index.nearest(q % TYPES, MIN_X + random.nextDouble() * SPAN, MIN_Y + random.nextDouble() * SPAN, 5000, 10).size();
+        }
+        start = System.nanoTime();
+        for (int q = 0; q < QUERIES; q++) {
+            sink += index.nearest(q % TYPES, MIN_X + random.nextDouble() * SPAN, MIN_Y + random.nextDouble() * SPAN, 5000, 10).size();
+        }
+        log.info("local index nearest 10 in 5km: {}us/op ({})", (System.nanoTime() - start) / QUERIES / 1000, sink);
+    }
+
+    /**
+     * Run with -Pbenchmark -Dbenchmark.redis.host=localhost against a disposable Redis, the shop:geo:bench:* keys are deleted.
+     * */
+    @Test
+    @Tag("benchmark")
+    @EnabledIfSystemProperty(named = "benchmark.redis.host", matches = ".+")
+    void benchmarkRedisGeoAtOneMillionShops() {
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(System.getProperty("benchmark.redis.host"), 6379);
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate redisTemplate = new StringRedisTemplate(connectionFactory);
+        String keyPrefix = RedisConstants.SHOP_GEO_KEY + "bench:";
+        Random random = new Random(1);
+        try {
+            for (long id = 1; id <= SHOPS; id += 10_000) {
+                Map<Long, Map<String, Point>> batch = new HashMap<>();
+                for (long i = id; i < id + 10_000; i++) {
+                    batch.computeIfAbsent(i % TYPES, t -> new HashMap<>())
+                            .put(Long.toString(i), new Point(MIN_X + random.nextDouble() * SPAN, MIN_Y + random.nextDouble() * SPAN));
+                }
+                batch.forEach((typeId, locations) -> redisTemplate.opsForGeo().add(keyPrefix + typeId, locations));
+            }
+
+            long sink = 0;
+            long start = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) {
+                sink += redisTemplate.opsForGeo().radius(keyPrefix + (q % TYPES),
+                        new Circle(new Point(MIN_X + random.nextDouble() * SPAN, MIN_Y + random.nextDouble() * SPAN),
+                                new Distance(5000, RedisGeoCommands.DistanceUnit.METERS)),
+                        RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(10))
+                        .getContent().size();
+            }
+            log.info("redis georadius nearest 10 in 5km: {}us/op ({})", (System.nanoTime() - start) / QUERIES / 1000, sink);
+        } finally {
+            for (int typeId = 0; typeId < TYPES; typeId++) {
+                redisTemplate.delete(keyPrefix + typeId);
+            }
+            connectionFactory.destroy();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GlobalIDGeneratorBufferTest {
+
+    @Test
+    void testBufferedIdsTakeOneBlockPerSegment() {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.increment(anyString(), eq(100L))).thenReturn(100L, 200L, 300L);
+        GlobalIDGenerator generator = new GlobalIDGenerator(redisTemplate);
+
+        Set<Long> serials = new HashSet<>();
+        for (int i = 0; i < 250; i++) {
+            serials.add(generator.nextBufferedId("order", 100) & 0xffffffffL);
+        }
+
+        assertEquals(250, serials.size());
+        assertTrue(serials.contains(1L) && serials.contains(250L));
+        verify(valueOperations, times(3)).increment(anyString(), eq(100L));
+    }
+}
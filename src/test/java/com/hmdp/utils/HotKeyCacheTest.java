@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HotKeyCacheTest {
+
+    @Test
+    void testPromoteAndServeLocally() {
+        HotKeyCache<Long, String> cache = new HotKeyCache<>(64, 3, 60_000, 10, 60_000);
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("shop", cache.get(1L, () -> {
+                loads.incrementAndGet();
+                return "shop";
+            }));
+        }
+        cache.get(2L, () -> "cold");
+
+        // two cold reads, then the third promotes and loads once
+        assertEquals(3, loads.get());
+        assertTrue(cache.isHot(1L));
+        assertFalse(cache.isHot(2L));
+        assertEquals(1, cache.hotKeys().size());
+        assertEquals(7, cache.hotKeys().get(0).getHits());
+    }
+
+    @Test
+    void testDemoteAfterTrafficDrops() {
+        HotKeyCache<Long, String> cache = new HotKeyCache<>(64, 4, 60_000, 10, 60_000);
+        for (int i = 0; i < 4; i++) {
+            cache.get(1L, () -> "shop");
+        }
+        assertTrue(cache.isHot(1L));
+
+        cache.decay();
+        assertTrue(cache.isHot(1L));
+        cache.decay();
+        assertFalse(cache.isHot(1L));
+    }
+
+    @Test
+    void testCountMinSketchNeverUndercounts() {
+        CountMinSketch sketch = new CountMinSketch(16);
+        for (long key = 0; key < 100; key++) {
+            for (int i = 0; i <= key % 5; i++) {
+                sketch.add(key);
+            }
+        }
+        for (long key = 0; key < 100; key++) {
+            assertTrue(sketch.estimate(key) >= key % 5 + 1);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hmdp.entity.ShopChangeLog;
+
+/**
+ * Stand-in for the change log table.
+ */
+public class InMemoryShopChangeLogSource implements ShopChangeLogSource {
+
+    private final List<ShopChangeLog> rows = new ArrayList<>();
+    private final AtomicLong ids = new AtomicLong();
+
+    public synchronized void append(Long shopId, String op, LocalDateTime createTime) {
+        rows.add(new ShopChangeLog().setId(ids.incrementAndGet()).setShopId(shopId).setOp(op).setCreateTime(createTime));
+    }
+
+    public synchronized int size() {
+        return rows.size();
+    }
+
+    @Override
+    public synchronized List<ShopChangeLog> fetchOldest(int limit, long settleMillis) {
+        LocalDateTime settled = LocalDateTime.now().minusNanos(settleMillis * 1_000_000);
+        List<ShopChangeLog> result = new ArrayList<>();
+        for (ShopChangeLog row : rows) {
+            if (result.size() == limit) {
+                break;
+            }
+            if (!row.getCreateTime().isAfter(settled)) {
+                result.add(row);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void remove(List<Long> changeIds) {
+        HashSet<Long> removed = new HashSet<>(changeIds);
+        rows.removeIf(row -> removed.contains(row.getId()));
+    }
+}
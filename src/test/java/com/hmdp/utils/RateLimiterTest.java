@@ -0,0 +1,24 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RateLimiterTest {
+
+    @Test
+    void testSpacesPermitsEvenly() throws InterruptedException {
+        RateLimiter rateLimiter = new RateLimiter(100);
+
+        long start = System.nanoTime();
+        assertEquals(0, rateLimiter.acquire(10));
+        rateLimiter.acquire(10);
+        rateLimiter.acquire(1);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis >= 190, "elapsed: " + elapsedMillis);
+    }
+}
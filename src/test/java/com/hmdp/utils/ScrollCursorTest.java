@@ -0,0 +1,40 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.hmdp.dto.ScrollResult;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ScrollCursorTest {
+
+    @Test
+    void testRoundTrip() {
+        assertArrayEquals(new long[]{42, 7}, ScrollCursor.parse(ScrollCursor.of(42, 7), 2));
+        assertNull(ScrollCursor.parse("", 2));
+    }
+
+    @Test
+    void testMalformedCursorIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ScrollCursor.parse("42", 2));
+        assertThrows(IllegalArgumentException.class, () -> ScrollCursor.parse("a_7", 2));
+    }
+
+    @Test
+    void testCursorOnlyWhenMoreRowsFollow() {
+        List<Long> rows = Arrays.asList(1L, 2L, 3L);
+
+        ScrollResult more = ScrollResult.of(rows, 2, id -> ScrollCursor.of(id));
+        ScrollResult last = ScrollResult.of(rows, 3, id -> ScrollCursor.of(id));
+
+        assertEquals(Arrays.asList(1L, 2L), more.getList());
+        assertEquals("2", more.getCursor());
+        assertNull(last.getCursor());
+    }
+}
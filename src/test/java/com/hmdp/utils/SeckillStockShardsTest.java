@@ -0,0 +1,237 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+public class SeckillStockShardsTest {
+
+    private static final List<String> HOME_KEYS =
+            Arrays.asList("seckill:stock:{9:2}", "seckill:order:{9:2}", "seckill:pending:{9:2}", "seckill:hold:{9:2}");
+
+    SeckillStockShards stockShards;
+    StringRedisTemplate redisTemplate;
+    ValueOperations<String, String> valueOperations;
+    SetOperations<String, String> setOperations;
+    HashOperations<String, Object, Object> hashOperations;
+    CacheInvalidationBus cacheInvalidationBus;
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        valueOperations = mock(ValueOperations.class);
+        setOperations = mock(SetOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        hashOperations = mock(HashOperations.class);
+        when(redisTemplate.opsForSet()).thenReturn(setOperations);
+        when(redisTemplate.opsForHash()).thenReturn(hashOperations);
+        when(valueOperations.get(RedisConstants.SECKILL_STOCK_SHARDS_KEY + 9L)).thenReturn("4");
+        cacheInvalidationBus = mock(CacheInvalidationBus.class);
+        stockShards = new SeckillStockShards();
+        stockShards.redisTemplate = redisTemplate;
+        stockShards.cacheInvalidationBus = cacheInvalidationBus;
+    }
+
+    @Test
+    void testKeysHaveOwnHashTags() {
+        assertEquals("seckill:stock:{9:2}", SeckillStockShards.stockKey(9L, 2));
+        assertEquals("seckill:order:{9:2}", SeckillStockShards.orderKey(9L, 2));
+    }
+
+    @Test
+    void testPreorderOnHomeShard() {
+        // user 6 of 4 shards is at home in shard 2
+        when(redisTemplate.execute(any(RedisScript.class), eq(HOME_KEYS), eq("6"), eq("1"), any()))
+                .thenReturn(0L);
+
+        assertEquals(2, stockShards.preorder(9L, 6L, 100L));
+    }
+
+    @Test
+    void testPreorderFallsOverToNextShard() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(HOME_KEYS), eq("6"), eq("1"), any()))
+                .thenReturn(-2L);
+        when(redisTemplate.execute(any(RedisScript.class), eq(Arrays.asList("seckill:stock:{9:3}", "seckill:pending:{9:3}")), eq("6"), any()))
+                .thenReturn(-2L);
+        when(redisTemplate.execute(any(RedisScript.class), eq(Arrays.asList("seckill:stock:{9:0}", "seckill:pending:{9:0}")), eq("6"), any()))
+                .thenReturn(0L);
+
+        assertEquals(0, stockShards.preorder(9L, 6L, 100L));
+        // the user stays in the set of the home shard
+        verify(setOperations, never()).remove(any(), any());
+    }
+
+    @Test
+    void testPreorderSoldOutReleasesUser() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(HOME_KEYS), eq("6"), eq("1"), any()))
+                .thenReturn(-2L);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(), any())).thenReturn(-2L);
+
+        assertEquals(SeckillStockShards.SOLD_OUT, stockShards.preorder(9L, 6L, 100L));
+        verify(setOperations).remove("seckill:order:{9:2}", "6");
+        verify(hashOperations).delete("seckill:hold:{9:2}", "6");
+        verify(cacheInvalidationBus).publish("seckill-sold-out", 9L);
+    }
+
+    @Test
+    void testSoldOutIsAnsweredLocallyUntilRestock() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(), any(), any())).thenReturn(-2L);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(), any())).thenReturn(-2L);
+        stockShards.preorder(9L, 6L, 100L);
+        clearInvocations(redisTemplate);
+
+        assertEquals(SeckillStockShards.SOLD_OUT, stockShards.preorder(9L, 7L, 101L));
+        verifyNoInteractions(redisTemplate);
+
+        assertTrue(stockShards.restock(9L, 10));
+        assertFalse(stockShards.isSoldOut(9L));
+        verify(cacheInvalidationBus).publish("seckill-restock", 9L);
+    }
+
+    @Test
+    void testCheckClearsSoldOutWithStock() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(), any(), any())).thenReturn(-2L);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(), any())).thenReturn(-2L);
+        stockShards.preorder(9L, 6L, 100L);
+
+        when(redisTemplate.executePipelined(any(SessionCallback.class))).thenReturn(Arrays.asList("0", "0", "0", "0"));
+        stockShards.checkSoldOut();
+        assertTrue(stockShards.isSoldOut(9L));
+
+        when(redisTemplate.executePipelined(any(SessionCallback.class))).thenReturn(Arrays.asList("0", "3", "0", "0"));
+        stockShards.checkSoldOut();
+        assertFalse(stockShards.isSoldOut(9L));
+    }
+
+    @Test
+    void testVoucherCreatedBeforeShardingUsesLegacyKeys() {
+        // no shard count, only the stock and users written before the stock was sharded
+        when(redisTemplate.hasKey("seckill:stock:11")).thenReturn(true);
+        when(redisTemplate.execute(any(RedisScript.class), eq(Arrays.asList("seckill:stock:11", "seckill:order:11", "seckill:pending:11", "seckill:hold:11")), eq("6"), eq("0"), any()))
+                .thenReturn(0L);
+        when(redisTemplate.execute(any(RedisScript.class), eq(Arrays.asList("seckill:stock:11", "seckill:order:11", "seckill:pending:11", "seckill:hold:11")), eq("7"), eq("0"), any()))
+                .thenReturn(-3L);
+
+        assertEquals(0, stockShards.preorder(11L, 6L, 100L));
+        // a user who ordered before the switch is still found
+        assertEquals(SeckillStockShards.ORDERED_ALREADY, stockShards.preorder(11L, 7L, 101L));
+
+        assertTrue(stockShards.restock(11L, 5));
+        stockShards.cancel(11L, 6L, 0);
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(Arrays.asList("seckill:stock:11", "seckill:pending:11", "seckill:order:11")), eq("6"));
+    }
+
+    @Test
+    void testPreorderOrderedAlreadyAndNotFound() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(HOME_KEYS), eq("6"), eq("1"), any()))
+                .thenReturn(-3L);
+
+        assertEquals(SeckillStockShards.ORDERED_ALREADY, stockShards.preorder(9L, 6L, 100L));
+        assertEquals(SeckillStockShards.NOT_FOUND, stockShards.preorder(10L, 6L, 100L));
+    }
+
+    @Test
+    void testConfirmRemovesHoldBeforePreorder() {
+        stockShards.confirm(9L, 6L, 0);
+
+        InOrder inOrder = inOrder(hashOperations);
+        inOrder.verify(hashOperations).delete("seckill:hold:{9:2}", "6");
+        inOrder.verify(hashOperations).delete("seckill:pending:{9:0}", "6");
+    }
+
+    @Test
+    void testCancelOfSettledPreorderKeepsUser() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(-1L);
+
+        stockShards.cancel(9L, 6L, 0);
+
+        verify(setOperations, never()).remove(any(), any());
+        verify(cacheInvalidationBus, never()).publish(any(), any());
+    }
+
+    @Test
+    void testReconcileQueuesLostOrdersAgain() {
+        long now = System.currentTimeMillis();
+        // user 6 took stock from shard 2 long ago, user 10 just now, user 14 long ago and has the order in MySQL
+        Map<Object, Object> preorders = new HashMap<>();
+        preorders.put("6", "100:" + (now - 120000));
+        preorders.put("10", "101:" + now);
+        preorders.put("14", "102:" + (now - 120000));
+        when(hashOperations.entries(anyString())).thenReturn(Collections.emptyMap());
+        when(hashOperations.entries("seckill:pending:{9:2}")).thenReturn(preorders);
+        Map<Long, Long> requeued = new HashMap<>();
+
+        int settled = stockShards.reconcile(9L, now - 60000, userId -> userId == 14L, requeued::put);
+
+        assertEquals(2, settled);
+        assertEquals(Collections.singletonMap(6L, 100L), requeued);
+        verify(hashOperations).delete("seckill:pending:{9:2}", "6");
+        verify(hashOperations).delete("seckill:pending:{9:2}", "14");
+        verify(hashOperations, never()).delete("seckill:pending:{9:2}", "10");
+        verify(valueOperations, never()).increment(anyString());
+    }
+
+    @Test
+    void testReconcileReleasesUsersHeldWithoutStock() {
+        long now = System.currentTimeMillis();
+        // user 6 was held at home in shard 2 and took stock from shard 0, user 10 was held and never took any
+        Map<Object, Object> holds = new HashMap<>();
+        holds.put("6", "100:" + (now - 120000));
+        holds.put("10", "101:" + (now - 120000));
+        when(hashOperations.entries(anyString())).thenReturn(Collections.emptyMap());
+        when(hashOperations.entries("seckill:pending:{9:0}")).thenReturn(Collections.singletonMap("6", "100:" + now));
+        when(hashOperations.entries("seckill:hold:{9:2}")).thenReturn(holds);
+
+        int settled = stockShards.reconcile(9L, now - 60000, userId -> false, (userId, orderId) -> {
+            throw new AssertionError("nothing to queue");
+        });
+
+        assertEquals(2, settled);
+        verify(setOperations).remove("seckill:order:{9:2}", "10");
+        verify(setOperations, never()).remove("seckill:order:{9:2}", "6");
+        verify(hashOperations).delete("seckill:hold:{9:2}", "6");
+        verify(hashOperations).delete("seckill:hold:{9:2}", "10");
+    }
+
+    @Test
+    void testUnknownVoucherIsRememberedBriefly() {
+        assertEquals(SeckillStockShards.NOT_FOUND, stockShards.preorder(10L, 6L, 100L));
+        assertEquals(SeckillStockShards.NOT_FOUND, stockShards.preorder(10L, 7L, 101L));
+        verify(valueOperations, times(1)).get(RedisConstants.SECKILL_STOCK_SHARDS_KEY + 10L);
+        verify(redisTemplate, times(1)).hasKey(RedisConstants.SECKILL_STOCK_KEY + 10L);
+
+        // created on this node meanwhile
+        stockShards.create(10L, 10, 2);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(), any(), any())).thenReturn(0L);
+        assertEquals(0, stockShards.preorder(10L, 6L, 102L));
+    }
+}
@@ -0,0 +1,78 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import com.hmdp.entity.ShopChangeLog;
+import com.hmdp.service.IShopService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ShopChangeLogTailerTest {
+
+    ShopChangeLogTailer tailer;
+    InMemoryShopChangeLogSource source;
+    List<List<Long>> refreshed;
+
+    @BeforeEach
+    void setUp() {
+        source = new InMemoryShopChangeLogSource();
+        refreshed = new ArrayList<>();
+        tailer = new ShopChangeLogTailer();
+        tailer.changeLogSource = source;
+        tailer.shopService = mock(IShopService.class);
+        tailer.redisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> operations = mock(ValueOperations.class);
+        when(tailer.redisTemplate.opsForValue()).thenReturn(operations);
+        when(operations.setIfAbsent(anyString(), anyString(), anyLong(), eq(TimeUnit.SECONDS))).thenReturn(true);
+        doAnswer(invocation -> refreshed.add(new ArrayList<>((Collection<Long>) invocation.getArgument(0))))
+                .when(tailer.shopService).refreshCache(any());
+        tailer.enabled = true;
+        tailer.batchSize = 3;
+        tailer.settleMillis = 1000;
+        tailer.lockTtlSeconds = 30;
+    }
+
+    @Test
+    void testApplyOrderedDeduplicatedBatches() {
+        LocalDateTime settled = LocalDateTime.now().minusSeconds(5);
+        source.append(1L, ShopChangeLog.OP_UPDATE, settled);
+        source.append(2L, ShopChangeLog.OP_INSERT, settled);
+        source.append(1L, ShopChangeLog.OP_UPDATE, settled);
+        source.append(3L, ShopChangeLog.OP_DELETE, settled);
+        // not settled yet, a lower id may still commit
+        source.append(4L, ShopChangeLog.OP_UPDATE, LocalDateTime.now());
+
+        tailer.poll();
+
+        assertEquals(Arrays.asList(Arrays.asList(1L, 2L), Arrays.asList(3L)), refreshed);
+        assertEquals(1, source.size());
+    }
+
+    @Test
+    void testKeepChangesWhenRefreshFails() {
+        source.append(1L, ShopChangeLog.OP_UPDATE, LocalDateTime.now().minusSeconds(5));
+        doThrow(new IllegalStateException("redis is down")).when(tailer.shopService).refreshCache(any());
+
+        tailer.poll();
+
+        assertEquals(1, source.size());
+    }
+}
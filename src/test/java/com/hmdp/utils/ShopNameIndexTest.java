@@ -0,0 +1,97 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ShopNameIndexTest {
+
+    @Test
+    void testRankPrefixBeforeSubstringBeforeArea() {
+        ShopNameIndex index = new ShopNameIndex();
+        index.put(1, "老北京火锅", "朝阳区");
+        index.put(2, "火锅", "海淀区");
+        index.put(3, "重庆火锅大排档", "火锅街");
+        index.put(4, "烤鱼", "火锅街");
+        index.put(5, "火烧锅盔", "东城区");
+
+        ShopNameIndex.SearchResult result = index.search("火锅", 0, 10);
+
+        // 5 has both bigram characters but not the substring
+        assertEquals(Arrays.asList(2L, 1L, 3L, 4L), result.getShopIds());
+        assertEquals(4, result.getTotal());
+    }
+
+    @Test
+    void testSingleCharacterAndCaseInsensitiveQuery() {
+        ShopNameIndex index = new ShopNameIndex();
+        index.put(1, "KFC 肯德基", "朝阳区");
+        index.put(2, "Starbucks", "海淀区");
+
+        assertEquals(Collections.singletonList(1L), index.search("kfc", 0, 10).getShopIds());
+        assertEquals(Collections.singletonList(1L), index.search("肯", 0, 10).getShopIds());
+        assertEquals(Collections.singletonList(1L), index.search("c肯", 0, 10).getShopIds());
+    }
+
+    @Test
+    void testUpdateReplacesPreviousText() {
+        ShopNameIndex index = new ShopNameIndex();
+        index.put(1, "茶餐厅", "朝阳区");
+        index.put(1, "咖啡馆", "朝阳区");
+        index.remove(2);
+
+        assertEquals(0, index.search("茶餐", 0, 10).getTotal());
+        assertEquals(Collections.singletonList(1L), index.search("咖啡", 0, 10).getShopIds());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void testPagination() {
+        ShopNameIndex index = new ShopNameIndex();
+        for (long id = 1; id <= 25; id++) {
+            index.put(id, "奶茶" + id, "");
+        }
+
+        ShopNameIndex.SearchResult result = index.search("奶茶", 20, 10);
+
+        assertEquals(25, result.getTotal());
+        assertEquals(5, result.getShopIds().size());
+    }
+
+    @Test
+    void testSearchAfterCursor() {
+        ShopNameIndex index = new ShopNameIndex();
+        for (long id = 1; id <= 25; id++) {
+            index.put(id, "奶茶" + id, "");
+        }
+
+        ShopNameIndex.SearchResult first = index.searchAfter("奶茶", "", 10);
+        // shops ranked before the cursor do not shift the next page
+        index.put(100, "奶茶", "");
+        ShopNameIndex.SearchResult second = index.searchAfter("奶茶", first.getCursor(), 10);
+        ShopNameIndex.SearchResult last = index.searchAfter("奶茶", second.getCursor(), 10);
+
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L), first.getShopIds());
+        assertEquals(11L, second.getShopIds().get(0));
+        assertEquals(Arrays.asList(21L, 22L, 23L, 24L, 25L), last.getShopIds());
+        assertNull(last.getCursor());
+    }
+
+    @Test
+    void testSearchAfterCompaction() {
+        ShopNameIndex index = new ShopNameIndex();
+        for (int round = 0; round < 5; round++) {
+            for (long id = 1; id <= 1000; id++) {
+                index.put(id, "面馆" + round, "区" + id);
+            }
+        }
+
+        assertEquals(1000, index.search("面馆4", 0, 10).getTotal());
+        assertEquals(0, index.search("面馆3", 0, 10).getTotal());
+        assertEquals(Collections.singletonList(7L), index.search("区7", 0, 1).getShopIds());
+    }
+}
@@ -0,0 +1,101 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SingleFlightTest {
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(16);
+
+    @Test
+    void testConcurrentCallsShareOneLoad() throws Exception {
+        SingleFlight<Long, String> singleFlight = new SingleFlight<>();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> leader = executorService.submit(() -> singleFlight.execute(1L, () -> {
+            loads.incrementAndGet();
+            started.countDown();
+            await(release);
+            return "shop";
+        }));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        List<Future<String>> followers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            followers.add(executorService.submit(() -> singleFlight.execute(1L, () -> {
+                loads.incrementAndGet();
+                return "other";
+            })));
+        }
+        // give the followers time to join the in-flight call
+        Thread.sleep(100);
+        release.countDown();
+
+        assertEquals("shop", leader.get(1, TimeUnit.SECONDS));
+        for (Future<String> follower : followers) {
+            assertEquals("shop", follower.get(1, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+
+    @Test
+    void testFailedLoadIsNotCached() {
+        SingleFlight<Long, String> singleFlight = new SingleFlight<>();
+
+        assertThrows(IllegalStateException.class, () -> singleFlight.execute(1L, () -> {
+            throw new IllegalStateException("db down");
+        }));
+        assertEquals("shop", singleFlight.execute(1L, () -> "shop"));
+    }
+
+    @Test
+    void testFollowerLoadsItselfWhenLeaderHangs() throws Exception {
+        SingleFlight<Long, String> singleFlight = new SingleFlight<>(100);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> leader = executorService.submit(() -> singleFlight.execute(1L, () -> {
+            started.countDown();
+            await(release);
+            return "shop";
+        }));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        Future<String> follower = executorService.submit(() -> singleFlight.execute(1L, () -> "own"));
+
+        assertEquals("own", follower.get(1, TimeUnit.SECONDS));
+        assertFalse(leader.isDone());
+        release.countDown();
+        assertEquals("shop", leader.get(1, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        executorService.shutdown();
+    }
+}
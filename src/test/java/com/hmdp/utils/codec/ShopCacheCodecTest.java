@@ -0,0 +1,145 @@
+package com.hmdp.utils.codec;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.ObjectMapperProvider;
+import com.hmdp.utils.RedisData;
+
+import lombok.extern.slf4j.Slf4j;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+public class ShopCacheCodecTest {
+
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int ITERATIONS = 200_000;
+
+    private final ObjectMapper objectMapper = new ObjectMapperProvider().objectMapper();
+
+    @Test
+    void testBinaryRoundTrip() {
+        Shop shop = newShop();
+        Shop decoded = new ShopBinaryCodec().decode(new ShopBinaryCodec().encode(shop));
+        assertEquals(shop, decoded);
+    }
+
+    @Test
+    void testBinaryRoundTripWithNullFields() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        Shop decoded = new ShopBinaryCodec().decode(new ShopBinaryCodec().encode(shop));
+        assertEquals(1L, decoded.getId());
+        assertNull(decoded.getName());
+        assertNull(decoded.getX());
+    }
+
+    @Test
+    void testShopDataRoundTrip() {
+        RedisData<Shop> data = newShopData();
+        RedisData<Shop> decoded = new ShopDataBinaryCodec().decode(new ShopDataBinaryCodec().encode(data));
+        assertEquals(data, decoded);
+    }
+
+    @Test
+    void testVersionedCodecReadsBothFormats() {
+        CacheCodec<Shop> json = new JsonCacheCodec<>(objectMapper, Shop.class);
+        CacheCodec<Shop> binary = new ShopBinaryCodec();
+        CacheCodec<Shop> writesJson = new VersionedCacheCodec<>(json, binary, false);
+        CacheCodec<Shop> writesBinary = new VersionedCacheCodec<>(json, binary, true);
+
+        Shop shop = newShop();
+        assertEquals(shop, writesJson.decode(writesBinary.encode(shop)));
+        assertEquals(shop, writesBinary.decode(writesJson.encode(shop)));
+        assertEquals('{', writesJson.encode(shop)[0]);
+        assertEquals(CacheCodec.FORMAT_BINARY_V1, writesBinary.encode(shop)[0]);
+    }
+
+    @Test
+    void testTruncatedInputIsRejected() {
+        byte[] bytes = new ShopBinaryCodec().encode(newShop());
+        byte[] truncated = new byte[bytes.length / 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        assertThrows(IllegalArgumentException.class, () -> new ShopBinaryCodec().decode(truncated));
+    }
+
+    @Test
+    void testBinaryIsSmallerThanJson() {
+        RedisData<Shop> data = newShopData();
+        int jsonSize = new JsonCacheCodec<>(objectMapper, new TypeReference<RedisData<Shop>>() {}).encode(data).length;
+        int binarySize = new ShopDataBinaryCodec().encode(data).length;
+
+        assertTrue(binarySize < jsonSize, "json=" + jsonSize + "B, binary=" + binarySize + "B");
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmarkJsonAgainstBinary() {
+        RedisData<Shop> data = newShopData();
+        CacheCodec<RedisData<Shop>> json = new JsonCacheCodec<>(objectMapper, new TypeReference<RedisData<Shop>>() {});
+        CacheCodec<RedisData<Shop>> binary = new ShopDataBinaryCodec();
+
+        benchmark("json", json, data);
+        benchmark("binary", binary, data);
+    }
+
+    private static void benchmark(String name, CacheCodec<RedisData<Shop>> codec, RedisData<Shop> data) {
+        byte[] bytes = codec.encode(data);
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += codec.encode(data).length;
+            sink += codec.decode(bytes).getData().getId();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += codec.encode(data).length;
+        }
+        long encodeNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += codec.decode(bytes).getData().getId();
+        }
+        long decodeNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        log.info("{}: encode={}ns/op, decode={}ns/op ({})", name, encodeNanos, decodeNanos, sink);
+    }
+
+    private static RedisData<Shop> newShopData() {
+        RedisData<Shop> data = new RedisData<>();
+        data.setData(newShop());
+        data.setExpireTime(LocalDateTime.of(2024, 10, 24, 12, 42, 0));
+        data.setRebuildCostMillis(203L);
+        return data;
+    }
+
+    private static Shop newShop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+}